@@ -0,0 +1,225 @@
+package com.jayway.android.robotium.solo;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.WeakHashMap;
+import android.app.Activity;
+
+
+/**
+ * Keeps track of the opened activities and their order. Activities are held through
+ * weak references and are looked up by identity, which makes push, remove and lookup O(1).
+ *
+ */
+
+class ActivityStack {
+
+	private final WeakHashMap<Activity, Entry> entries;
+	private Entry top;
+	private Entry bottom;
+
+	/**
+	 * Constructs this object.
+	 */
+
+	public ActivityStack() {
+		entries = new WeakHashMap<Activity, Entry>();
+	}
+
+	/**
+	 * Pushes an activity to the top of the stack. An activity that is already
+	 * in the stack is moved to the top.
+	 *
+	 * @param activity the activity to push
+	 * @return {@code true} if the stack was changed
+	 */
+
+	public synchronized boolean push(Activity activity) {
+		if(activity == null){
+			return false;
+		}
+		Entry entry = getEntry(activity);
+
+		if(entry == null){
+			entry = new Entry(activity);
+			entries.put(activity, entry);
+		}
+		else if(entry == top){
+			return false;
+		}
+		else{
+			unlink(entry);
+		}
+		link(entry);
+		return true;
+	}
+
+	/**
+	 * Removes an activity from the stack.
+	 *
+	 * @param activity the activity to remove
+	 * @return {@code true} if the activity was in the stack
+	 */
+
+	public synchronized boolean remove(Activity activity) {
+		Entry entry = getEntry(activity);
+
+		if(entry == null){
+			return false;
+		}
+		entries.remove(activity);
+		unlink(entry);
+		return true;
+	}
+
+	/**
+	 * Checks if an activity is in the stack.
+	 *
+	 * @param activity the activity to check
+	 * @return {@code true} if the activity is in the stack
+	 */
+
+	public synchronized boolean contains(Activity activity) {
+		return getEntry(activity) != null;
+	}
+
+	/**
+	 * Returns the activity on top of the stack. Entries whose activities
+	 * have been garbage collected are removed on the way.
+	 *
+	 * @return the activity on top of the stack or {@code null} if the stack is empty
+	 */
+
+	public synchronized Activity peek() {
+		while(top != null){
+			Activity activity = top.reference.get();
+
+			if(activity != null){
+				return activity;
+			}
+			unlink(top);
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the activities in the stack, ordered from bottom to top.
+	 *
+	 * @return an {@code ArrayList} of the activities in the stack
+	 */
+
+	public synchronized ArrayList<Activity> getActivities() {
+		ArrayList<Activity> activities = new ArrayList<Activity>(entries.size());
+		Entry entry = bottom;
+
+		while(entry != null){
+			Entry next = entry.next;
+			Activity activity = entry.reference.get();
+
+			if(activity != null){
+				activities.add(activity);
+			}
+			else{
+				unlink(entry);
+			}
+			entry = next;
+		}
+		return activities;
+	}
+
+	/**
+	 * Checks if the stack is empty.
+	 *
+	 * @return {@code true} if there are no activities in the stack
+	 */
+
+	public synchronized boolean isEmpty() {
+		return peek() == null;
+	}
+
+	/**
+	 * Clears the stack.
+	 */
+
+	public synchronized void clear() {
+		entries.clear();
+		top = null;
+		bottom = null;
+	}
+
+	/**
+	 * Returns the entry of the given activity. Activities are compared by identity.
+	 *
+	 * @param activity the activity whose entry should be returned
+	 * @return the entry or {@code null} if the activity is not in the stack
+	 */
+
+	private Entry getEntry(Activity activity) {
+		if(activity == null){
+			return null;
+		}
+		Entry entry = entries.get(activity);
+
+		if(entry != null && entry.reference.get() == activity){
+			return entry;
+		}
+		return null;
+	}
+
+	/**
+	 * Links an entry on top of the stack.
+	 *
+	 * @param entry the entry to link
+	 */
+
+	private void link(Entry entry) {
+		entry.previous = top;
+		entry.next = null;
+
+		if(top != null){
+			top.next = entry;
+		}
+		else{
+			bottom = entry;
+		}
+		top = entry;
+	}
+
+	/**
+	 * Unlinks an entry from the stack.
+	 *
+	 * @param entry the entry to unlink
+	 */
+
+	private void unlink(Entry entry) {
+		if(entry.previous != null){
+			entry.previous.next = entry.next;
+		}
+		else if(bottom == entry){
+			bottom = entry.next;
+		}
+
+		if(entry.next != null){
+			entry.next.previous = entry.previous;
+		}
+		else if(top == entry){
+			top = entry.previous;
+		}
+		entry.previous = null;
+		entry.next = null;
+	}
+
+	/**
+	 * A node in the stack.
+	 */
+
+	private static class Entry {
+		final WeakReference<Activity> reference;
+		Entry previous;
+		Entry next;
+
+		Entry(Activity activity) {
+			reference = new WeakReference<Activity>(activity);
+		}
+	}
+}
@@ -2,15 +2,21 @@ package com.jayway.android.robotium.solo;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.Stack;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import junit.framework.Assert;
 import android.app.Activity;
+import android.app.Application;
 import android.app.Instrumentation;
 import android.app.Instrumentation.ActivityMonitor;
+import android.content.Context;
 import android.content.IntentFilter;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.KeyEvent;
 
@@ -28,30 +34,34 @@ class ActivityUtils {
 	private final Instrumentation inst;
 	private ActivityMonitor activityMonitor;
 	private Activity activity;
-	private final Sleeper sleeper;
 	private final String LOG_TAG = "Robotium";
-	private final int MINISLEEP = 100;
 	private static final int ACTIVITYSYNCTIME = 50;
-	private Stack<WeakReference<Activity>> activityStack;
-	private WeakReference<Activity> weakActivityReference;
-	private Stack<String> activitiesStoredInActivityStack;
-	private Timer activitySyncTimer;
+	private static final int BACK_TIMEOUT = 1000;
+	private final ActivityStack activityStack;
+	private final Scheduler scheduler;
+	private ScheduledFuture<?> activitySyncTask;
+	private Application application;
+	private ActivityLifecycleListener activityLifecycleListener;
+	private final HashMap<Class<?>, List<CountDownLatch>> activityLatches;
+	private volatile long transitionStartTime = -1;
+	private volatile long transitionTime = -1;
+	private volatile WeakReference<Activity> shownActivity = new WeakReference<Activity>(null);
 
 	/**
 	 * Constructs this object.
 	 *
 	 * @param inst the {@code Instrumentation} instance.
 	 * @param activity the start {@code Activity}
-	 * @param sleeper the {@code Sleeper} instance
+	 * @param scheduler the {@code Scheduler} instance
 	 */
 
-	public ActivityUtils(Instrumentation inst, Activity activity, Sleeper sleeper) {
+	public ActivityUtils(Instrumentation inst, Activity activity, Scheduler scheduler) {
 		this.inst = inst;
 		this.activity = activity;
-		this.sleeper = sleeper;
-		createStackAndPushStartActivity();
-		activitySyncTimer = new Timer();
-		activitiesStoredInActivityStack = new Stack<String>();
+		this.scheduler = scheduler;
+		activityStack = new ActivityStack();
+		activityLatches = new HashMap<Class<?>, List<CountDownLatch>>();
+		pushStartActivity();
 		setupActivityMonitor();
 		setupActivityStackListener();
 	}
@@ -59,15 +69,14 @@ class ActivityUtils {
 
 
 	/**
-	 * Creates a new activity stack and pushes the start activity 
+	 * Pushes the start activity to the activity stack
 	 */
 
-	private void createStackAndPushStartActivity(){
-		activityStack = new Stack<WeakReference<Activity>>();
+	private void pushStartActivity(){
 		if (activity != null){
-			WeakReference<Activity> weakReference = new WeakReference<Activity>(activity);
+			activityStack.push(activity);
+			shownActivity = new WeakReference<Activity>(activity);
 			activity = null;
-			activityStack.push(weakReference);
 		}
 	}
 
@@ -79,15 +88,7 @@ class ActivityUtils {
 
 	public ArrayList<Activity> getAllOpenedActivities()
 	{
-		ArrayList<Activity> activities = new ArrayList<Activity>();
-		Iterator<WeakReference<Activity>> activityStackIterator = activityStack.iterator();
-
-		while(activityStackIterator.hasNext()){
-			Activity  activity = activityStackIterator.next().get();
-			if(activity!=null)
-				activities.add(activity);
-		}
-		return activities;
+		return activityStack.getActivities();
 	}
 
 	/**
@@ -107,52 +108,70 @@ class ActivityUtils {
 
 	/**
 	 * This is were the activityStack listener is set up. The listener will keep track of the
-	 * opened activities and their positions.
+	 * opened activities and their positions. Activity lifecycle callbacks are used where
+	 * available, otherwise the activityMonitor is polled.
 	 */
 
 	private void setupActivityStackListener() {
-		TimerTask activitySyncTimerTask = new TimerTask() {
-			@Override
+		if(Build.VERSION.SDK_INT >= 14){
+			Context applicationContext = inst.getTargetContext().getApplicationContext();
+
+			if(applicationContext instanceof Application){
+				application = (Application) applicationContext;
+				activityLifecycleListener = new ActivityLifecycleListener();
+				application.registerActivityLifecycleCallbacks(activityLifecycleListener);
+				return;
+			}
+		}
+		setupActivityMonitorPolling();
+	}
+
+	/**
+	 * Polls the activityMonitor for new activities. Used when activity lifecycle callbacks are not available.
+	 */
+
+	private void setupActivityMonitorPolling() {
+		Runnable activitySyncRunnable = new Runnable() {
 			public void run() {
 				if (activityMonitor != null){
 					Activity activity = activityMonitor.getLastActivity();
 					if (activity != null){
 
-						if(!activitiesStoredInActivityStack.isEmpty() && activitiesStoredInActivityStack.peek().equals(activity.toString())){
-							return;
-						}						
-						if (activitiesStoredInActivityStack.remove(activity.toString())){
-							removeActivityFromStack(activity);
+						if (activity.isFinishing()){
+							boolean wasTop = activityStack.peek() == activity;
+
+							if(activityStack.remove(activity)){
+								signalActivityLatches(activity);
+								Activity currentActivity = activityStack.peek();
+
+								// The activity below has become current without an event of its own
+								if(wasTop && currentActivity != null){
+									onActivityShown(currentActivity);
+								}
+							}
 						}
-						if (!activity.isFinishing()){
-							addActivityToStack(activity);
+						else if(activityStack.push(activity)){
+							onActivityShown(activity);
 						}
 					}
 				}
 			}
 		};
-		activitySyncTimer.schedule(activitySyncTimerTask, 0, ACTIVITYSYNCTIME);
+		activitySyncTask = scheduler.scheduleAtFixedRate(activitySyncRunnable, 0, ACTIVITYSYNCTIME);
 	}
 
 	/**
-	 * Removes a given activity from the activity stack
-	 * 
-	 * @param activity the activity to remove
+	 * Stops the activityStack listener.
 	 */
 
-	private void removeActivityFromStack(Activity activity){
-
-		Iterator<WeakReference<Activity>> activityStackIterator = activityStack.iterator();
-		while(activityStackIterator.hasNext()){
-			Activity activityFromWeakReference = activityStackIterator.next().get();
-
-			if(activityFromWeakReference == null){
-				activityStackIterator.remove();
-			}
-
-			if(activity!=null && activityFromWeakReference!=null && activityFromWeakReference.equals(activity)){
-				activityStackIterator.remove();
-			}
+	private void stopActivityStackListener() {
+		if(activitySyncTask != null){
+			activitySyncTask.cancel(false);
+			activitySyncTask = null;
+		}
+		if(activityLifecycleListener != null){
+			application.unregisterActivityLifecycleCallbacks(activityLifecycleListener);
+			activityLifecycleListener = null;
 		}
 	}
 
@@ -179,29 +198,211 @@ class ActivityUtils {
 	}
 
 	/**
-	 * Adds an activity to the stack
-	 * 
-	 * @param activity the activity to add
+	 * Returns the current {@code Activity}.
+	 *
+	 * @return the current {@code Activity}
 	 */
 
-	private void addActivityToStack(Activity activity){
-		activitiesStoredInActivityStack.add(activity.toString());
-		weakActivityReference = new WeakReference<Activity>(activity);
-		activity = null;
-		activityStack.push(weakActivityReference);
+	public Activity getCurrentActivity() {
+		Activity currentActivity = activityStack.peek();
+
+		if(currentActivity != null){
+			activity = currentActivity;
+		}
+		return activity;
 	}
 
 	/**
-	 * Returns the current {@code Activity}.
+	 * Waits for an {@code Activity} of the given class to become the current {@code Activity}.
 	 *
-	 * @return the current {@code Activity}
+	 * @param activityClass the class of the {@code Activity} to wait for
+	 * @param timeout the amount of time in milliseconds to wait
+	 * @return {@code true} if the {@code Activity} is current before the timeout and {@code false} if it is not
 	 */
 
-	public Activity getCurrentActivity() {
-		if(!activityStack.isEmpty()){
-			activity=activityStack.peek().get();
+	public boolean waitForActivity(final Class<? extends Activity> activityClass, long timeout){
+		Condition activityIsCurrent = new Condition() {
+			public boolean isSatisfied() {
+				Activity currentActivity = getCurrentActivity();
+				return currentActivity != null && currentActivity.getClass() == activityClass;
+			}
+		};
+		return waitForActivityEvent(activityClass, activityIsCurrent, timeout);
+	}
+
+	/**
+	 * Waits for all opened activities of the given class to be finished.
+	 *
+	 * @param activityClass the class of the {@code Activity} to wait for
+	 * @param timeout the amount of time in milliseconds to wait
+	 * @return {@code true} if the activities are finished before the timeout and {@code false} if they are not
+	 */
+
+	public boolean waitForActivityFinished(final Class<? extends Activity> activityClass, long timeout){
+		Condition activityIsFinished = new Condition() {
+			public boolean isSatisfied() {
+				for(Activity activity : getAllOpenedActivities()){
+					if(activity.getClass() == activityClass){
+						return false;
+					}
+				}
+				return true;
+			}
+		};
+		return waitForActivityEvent(activityClass, activityIsFinished, timeout);
+	}
+
+	/**
+	 * Waits for a condition to be satisfied. The condition is checked every time an
+	 * {@code Activity} of the given class is created, resumed or destroyed.
+	 *
+	 * @param activityClass the class of the activities to listen to or {@code Activity.class} for all
+	 * @param condition the condition to wait for
+	 * @param timeout the amount of time in milliseconds to wait
+	 * @return {@code true} if the condition is satisfied before the timeout and {@code false} if it is not
+	 */
+
+	private boolean waitForActivityEvent(Class<?> activityClass, Condition condition, long timeout){
+		final long endTime = SystemClock.uptimeMillis() + timeout;
+
+		while(true){
+			CountDownLatch latch = addActivityLatch(activityClass);
+			try{
+				if(condition.isSatisfied()){
+					return true;
+				}
+				final long timeLeft = endTime - SystemClock.uptimeMillis();
+
+				if(timeLeft <= 0){
+					return false;
+				}
+				latch.await(timeLeft, TimeUnit.MILLISECONDS);
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				return condition.isSatisfied();
+			}finally{
+				removeActivityLatch(activityClass, latch);
+			}
 		}
-		return activity;
+	}
+
+	/**
+	 * Adds a latch that is counted down on the next event of an {@code Activity} of the given class.
+	 *
+	 * @param activityClass the class of the activities to listen to
+	 * @return the added latch
+	 */
+
+	private CountDownLatch addActivityLatch(Class<?> activityClass){
+		CountDownLatch latch = new CountDownLatch(1);
+
+		synchronized (activityLatches) {
+			List<CountDownLatch> latches = activityLatches.get(activityClass);
+
+			if(latches == null){
+				latches = new ArrayList<CountDownLatch>();
+				activityLatches.put(activityClass, latches);
+			}
+			latches.add(latch);
+		}
+		return latch;
+	}
+
+	/**
+	 * Removes a latch added by {@link #addActivityLatch(Class)}.
+	 *
+	 * @param activityClass the class of the activities listened to
+	 * @param latch the latch to remove
+	 */
+
+	private void removeActivityLatch(Class<?> activityClass, CountDownLatch latch){
+		synchronized (activityLatches) {
+			List<CountDownLatch> latches = activityLatches.get(activityClass);
+
+			if(latches != null){
+				latches.remove(latch);
+
+				if(latches.isEmpty()){
+					activityLatches.remove(activityClass);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Counts down the latches of the class of the given {@code Activity} and the latches
+	 * listening to all activities.
+	 *
+	 * @param activity the {@code Activity} that has changed state
+	 */
+
+	private void signalActivityLatches(Activity activity){
+		synchronized (activityLatches) {
+			if(activityLatches.isEmpty()){
+				return;
+			}
+			countDownLatches(activityLatches.get(activity.getClass()));
+			countDownLatches(activityLatches.get(Activity.class));
+		}
+	}
+
+	/**
+	 * Counts down the given latches.
+	 *
+	 * @param latches the latches to count down
+	 */
+
+	private void countDownLatches(List<CountDownLatch> latches){
+		if(latches != null){
+			for(CountDownLatch latch : latches){
+				latch.countDown();
+			}
+		}
+	}
+
+	/**
+	 * Marks the start of a possible activity transition, e.g. a click. Replaces the start of an earlier 
+	 * transition that has not completed. A start that is not followed by a transition within the small 
+	 * timeout is dropped.
+	 */
+
+	public void markTransitionStart(){
+		transitionStartTime = SystemClock.uptimeMillis();
+	}
+
+	/**
+	 * Returns the time of the last activity transition, measured from the click that
+	 * started it to the resume of the new {@code Activity}.
+	 *
+	 * @return the transition time in milliseconds or {@code -1} if no transition has been measured
+	 */
+
+	public long getTransitionTime(){
+		return transitionTime;
+	}
+
+	/**
+	 * Called when an {@code Activity} is shown. Measures the transition time if it differs from the 
+	 * previously shown {@code Activity} and signals the waiting latches.
+	 *
+	 * @param activity the {@code Activity} that is shown
+	 */
+
+	private void onActivityShown(Activity activity){
+		final long startTime = transitionStartTime;
+		final Activity previousActivity = shownActivity.get();
+		shownActivity = new WeakReference<Activity>(activity);
+
+		if(startTime >= 0 && activity != previousActivity){
+			final long time = SystemClock.uptimeMillis() - startTime;
+			transitionStartTime = -1;
+
+			if(time <= Timeout.getSmallTimeout()){
+				transitionTime = time;
+				Log.d(LOG_TAG, "Transition to " + activity.getClass().getSimpleName() + " took " + transitionTime + " ms");
+			}
+		}
+		signalActivityLatches(activity);
 	}
 
 	/**
@@ -211,29 +412,91 @@ class ActivityUtils {
 	 */
 
 	public void goBackToActivity(String name)
+	{
+		goBackToActivity(name, false);
+	}
+
+	/**
+	 * Returns to the given {@link Activity}, either by pressing back or by finishing the activities
+	 * opened on top of it. After each back press the activity stack is awaited to change
+	 * before the next one is sent.
+	 *
+	 * @param name the name of the {@code Activity} to return to, e.g. {@code "MyActivity"}
+	 * @param finishActivities {@code true} if the activities on top of it should be finished instead of pressing back
+	 */
+
+	public void goBackToActivity(final String name, boolean finishActivities)
 	{
 		ArrayList<Activity> activitiesOpened = getAllOpenedActivities();
-		boolean found = false;	
-		for(int i = 0; i < activitiesOpened.size(); i++){
+		int index = -1;
+		for(int i = activitiesOpened.size() - 1; i >= 0; i--){
 			if(activitiesOpened.get(i).getClass().getSimpleName().equals(name)){
-				found = true;
+				index = i;
 				break;
 			}
 		}
-		if(found){
-			while(!getCurrentActivity().getClass().getSimpleName().equals(name))
-			{
-				try{
-					inst.sendKeyDownUpSync(KeyEvent.KEYCODE_BACK);
-				}catch(SecurityException ignored){}	
-			}
-		}
-		else{
+		if(index < 0){
 			for (int i = 0; i < activitiesOpened.size(); i++){
 				Log.d(LOG_TAG, "Activity priorly opened: "+ activitiesOpened.get(i).getClass().getSimpleName());
 			}
 			Assert.assertTrue("No Activity named: '" + name + "' has been priorly opened", false);
 		}
+		final long endTime = SystemClock.uptimeMillis() + Timeout.getSmallTimeout();
+
+		if(finishActivities){
+			final List<Activity> activitiesToFinish = activitiesOpened.subList(index + 1, activitiesOpened.size());
+			inst.runOnMainSync(new Runnable() {
+				public void run() {
+					for (int i = activitiesToFinish.size()-1; i >= 0; i--) {
+						finishActivity(activitiesToFinish.get(i));
+					}
+				}
+			});
+		}
+		activitiesOpened = null;
+
+		Condition activityIsCurrent = new Condition() {
+			public boolean isSatisfied() {
+				Activity currentActivity = getCurrentActivity();
+				return currentActivity != null && currentActivity.getClass().getSimpleName().equals(name);
+			}
+		};
+
+		while(!activityIsCurrent.isSatisfied()){
+			final long timeLeft = endTime - SystemClock.uptimeMillis();
+
+			if(timeLeft <= 0){
+				Assert.assertTrue("Could not go back to Activity: '" + name + "'", false);
+			}
+			if(finishActivities){
+				waitForActivityEvent(Activity.class, activityIsCurrent, timeLeft);
+			}
+			else{
+				pressBackAndWaitForActivityChange(Math.min(timeLeft, BACK_TIMEOUT));
+			}
+		}
+	}
+
+	/**
+	 * Presses back and waits for the current {@code Activity} to change.
+	 *
+	 * @param timeout the amount of time in milliseconds to wait
+	 * @return {@code true} if the current {@code Activity} changed before the timeout
+	 */
+
+	private boolean pressBackAndWaitForActivityChange(long timeout){
+		final Activity activityBeforeBack = getCurrentActivity();
+
+		try{
+			inst.sendKeyDownUpSync(KeyEvent.KEYCODE_BACK);
+		}catch(SecurityException ignored){}
+
+		Condition activityHasChanged = new Condition() {
+			public boolean isSatisfied() {
+				return getCurrentActivity() != activityBeforeBack;
+			}
+		};
+		return waitForActivityEvent(Activity.class, activityHasChanged, timeout);
 	}
 
 	/**
@@ -255,7 +518,7 @@ class ActivityUtils {
 
 	@Override
 	public void finalize() throws Throwable {
-		activitySyncTimer.cancel();
+		stopActivityStackListener();
 		try {
 			// Remove the monitor added during startup
 			if (activityMonitor != null) {
@@ -267,41 +530,71 @@ class ActivityUtils {
 	}
 
 	/**
-	 * All activites that have been opened are finished.
+	 * All activites that have been opened are finished. The activities are finished in one pass
+	 * on the main thread after which their destruction is awaited.
 	 */
 
 	public void finishOpenedActivities(){
-		// Stops the activityStack listener
-		activitySyncTimer.cancel();
-		ArrayList<Activity> activitiesOpened = getAllOpenedActivities();
-		// Finish all opened activities
-		for (int i = activitiesOpened.size()-1; i >= 0; i--) {
-			sleeper.sleep(MINISLEEP);
-			finishActivity(activitiesOpened.get(i));
+		final ArrayList<Activity> activitiesOpened = getAllOpenedActivities();
+		Activity currentActivity = getCurrentActivity();
+
+		if(currentActivity != null && !activitiesOpened.contains(currentActivity)){
+			activitiesOpened.add(currentActivity);
 		}
-		activitiesOpened = null;
-		sleeper.sleep(MINISLEEP);
-		// Finish the initial activity, pressing Back for good measure
-		finishActivity(getCurrentActivity());
-		this.activity = null;
-		sleeper.sleepMini();
-		try {
-			inst.sendKeyDownUpSync(KeyEvent.KEYCODE_BACK);
-			sleeper.sleep(MINISLEEP);
-			inst.sendKeyDownUpSync(KeyEvent.KEYCODE_BACK);
-		} catch (Throwable ignored) {
-			// Guard against lack of INJECT_EVENT permission
+		// Finish all opened activities, starting with the top one
+		inst.runOnMainSync(new Runnable() {
+			public void run() {
+				for (int i = activitiesOpened.size()-1; i >= 0; i--) {
+					finishActivity(activitiesOpened.get(i));
+				}
+			}
+		});
+
+		if(activityLifecycleListener != null){
+			waitForActivitiesToBeDestroyed(activitiesOpened, Timeout.getSmallTimeout());
 		}
+		stopActivityStackListener();
+		this.activity = null;
 		clearActivityStack();
 	}
 
+	/**
+	 * Waits for the given activities to be destroyed. Activities that are not destroyed before the timeout are logged.
+	 *
+	 * @param activities the activities to wait for
+	 * @param timeout the amount of time in milliseconds to wait
+	 * @return {@code true} if all activities are destroyed before the timeout
+	 */
+
+	private boolean waitForActivitiesToBeDestroyed(final ArrayList<Activity> activities, long timeout){
+		Condition activitiesAreDestroyed = new Condition() {
+			public boolean isSatisfied() {
+				for(Activity activity : activities){
+					if(activityStack.contains(activity)){
+						return false;
+					}
+				}
+				return true;
+			}
+		};
+
+		if(waitForActivityEvent(Activity.class, activitiesAreDestroyed, timeout)){
+			return true;
+		}
+		for(Activity activity : activities){
+			if(activityStack.contains(activity)){
+				Log.d(LOG_TAG, "Activity not destroyed after being finished: " + activity);
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * Clears the activity stack
 	 */
 
 	private void clearActivityStack(){
 		activityStack.clear();
-		activitiesStoredInActivityStack.clear();
 	}
 
 	/**
@@ -320,4 +613,34 @@ class ActivityUtils {
 		}
 	}
 
+	/**
+	 * Keeps the activity stack updated through the activity lifecycle callbacks.
+	 */
+
+	private class ActivityLifecycleListener implements Application.ActivityLifecycleCallbacks {
+
+		public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+			activityStack.push(activity);
+			signalActivityLatches(activity);
+		}
+
+		public void onActivityStarted(Activity activity) {}
+
+		public void onActivityResumed(Activity activity) {
+			activityStack.push(activity);
+			onActivityShown(activity);
+		}
+
+		public void onActivityPaused(Activity activity) {}
+
+		public void onActivityStopped(Activity activity) {}
+
+		public void onActivitySaveInstanceState(Activity activity, Bundle outState) {}
+
+		public void onActivityDestroyed(Activity activity) {
+			activityStack.remove(activity);
+			signalActivityLatches(activity);
+		}
+	}
+
 }
@@ -0,0 +1,112 @@
+package com.jayway.android.robotium.solo;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import android.graphics.Bitmap;
+
+
+/**
+ * Keeps a few mutable bitmaps for reuse so that taking screenshots in a sequence does not
+ * allocate new pixel buffers for every frame. A bitmap is obtained when a screenshot is taken
+ * and released when it has been saved. Bitmaps are matched on width, height and config.
+ * The pool is closed by {@link #clear()} until the next bitmap is obtained: bitmaps released 
+ * in the meantime, e.g. by a screenshot still being saved, are recycled instead of pooled.
+ *
+ */
+
+class BitmapPool {
+
+	private static final int MAX_POOLED_BITMAPS = 3;
+	private final LinkedList<Bitmap> bitmaps;
+	private boolean closed = false;
+
+
+	/**
+	 * Constructs this object.
+	 */
+
+	public BitmapPool() {
+		bitmaps = new LinkedList<Bitmap>();
+	}
+
+	/**
+	 * Returns a cleared, mutable bitmap of the given size and config. A pooled bitmap is reused if there is one.
+	 * Opens the pool if it has been closed.
+	 *
+	 * @param width the width of the bitmap
+	 * @param height the height of the bitmap
+	 * @param config the config of the bitmap
+	 * @return a transparent bitmap
+	 */
+
+	public Bitmap obtain(int width, int height, Bitmap.Config config) {
+		Bitmap bitmap = null;
+
+		synchronized (bitmaps) {
+			closed = false;
+
+			for(Iterator<Bitmap> iterator = bitmaps.iterator(); iterator.hasNext();){
+				Bitmap pooledBitmap = iterator.next();
+
+				if(pooledBitmap.getWidth() == width && pooledBitmap.getHeight() == height && pooledBitmap.getConfig() == config){
+					iterator.remove();
+					bitmap = pooledBitmap;
+					break;
+				}
+			}
+		}
+		if(bitmap == null){
+			return Bitmap.createBitmap(width, height, config);
+		}
+		bitmap.eraseColor(0);
+		return bitmap;
+	}
+
+	/**
+	 * Returns a bitmap to the pool. The least recently released bitmap is recycled if the pool is full.
+	 * The bitmap is recycled if the pool is closed.
+	 *
+	 * @param bitmap the bitmap that is no longer used
+	 */
+
+	public void release(Bitmap bitmap) {
+		if(bitmap == null || bitmap.isRecycled()){
+			return;
+		}
+		if(!bitmap.isMutable()){
+			bitmap.recycle();
+			return;
+		}
+		Bitmap bitmapToRecycle = null;
+
+		synchronized (bitmaps) {
+			if(closed){
+				bitmapToRecycle = bitmap;
+			}
+			else{
+				bitmaps.addFirst(bitmap);
+			}
+			if(bitmaps.size() > MAX_POOLED_BITMAPS){
+				bitmapToRecycle = bitmaps.removeLast();
+			}
+		}
+		if(bitmapToRecycle != null){
+			bitmapToRecycle.recycle();
+		}
+	}
+
+	/**
+	 * Recycles all pooled bitmaps and closes the pool.
+	 */
+
+	public void clear() {
+		synchronized (bitmaps) {
+			closed = true;
+
+			for(Bitmap bitmap : bitmaps){
+				bitmap.recycle();
+			}
+			bitmaps.clear();
+		}
+	}
+}
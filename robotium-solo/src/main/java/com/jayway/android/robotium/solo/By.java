@@ -93,6 +93,30 @@ public abstract class By {
 
 	}
 
+	/**
+	 * Select a WebElement matching all of the specified By objects.
+	 * 
+	 * @param selectors the By objects that the web element must match
+	 * @return the And object
+	 */
+
+	public static By and(final By... selectors) {
+		return new And(selectors); 
+
+	}
+
+	/**
+	 * Select a WebElement matching any of the specified By objects.
+	 * 
+	 * @param selectors the By objects that the web element may match
+	 * @return the Or object
+	 */
+
+	public static By or(final By... selectors) {
+		return new Or(selectors); 
+
+	}
+
 	/**
 	 * Returns the value. 
 	 * 
@@ -194,4 +218,58 @@ public abstract class By {
 			return tagName;
 		}
 	}
+
+	static class And extends By {
+		private final By[] selectors;
+		
+		public And(By... selectors){
+			this.selectors = selectors;
+		}
+
+		public By[] getSelectors(){
+			return selectors;
+		}
+		
+		@Override
+		public String getValue(){
+			return joinValues(selectors, " and ");
+		}
+	}
+
+	static class Or extends By {
+		private final By[] selectors;
+		
+		public Or(By... selectors){
+			this.selectors = selectors;
+		}
+
+		public By[] getSelectors(){
+			return selectors;
+		}
+		
+		@Override
+		public String getValue(){
+			return joinValues(selectors, " or ");
+		}
+	}
+
+	/**
+	 * Joins the values of the given By objects.
+	 * 
+	 * @param selectors the By objects whose values should be joined
+	 * @param separator the separator to put between the values
+	 * @return the joined values
+	 */
+
+	private static String joinValues(By[] selectors, String separator){
+		StringBuilder values = new StringBuilder();
+
+		for(By selector : selectors){
+			if(values.length() > 0){
+				values.append(separator);
+			}
+			values.append(selector.getValue());
+		}
+		return values.toString();
+	}
 }
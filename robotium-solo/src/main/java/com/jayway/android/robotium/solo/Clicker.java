@@ -2,7 +2,6 @@ package com.jayway.android.robotium.solo;
 
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
-import java.util.Collection;
 import junit.framework.Assert;
 import android.app.Activity;
 import android.app.Instrumentation;
@@ -76,6 +75,7 @@ class Clicker {
 	public void clickOnScreen(float x, float y) {
 		boolean successfull = false;
 		int retry = 0;
+		activityUtils.markTransitionStart();
 
 		while(!successfull && retry < 10) {
 			long downTime = SystemClock.uptimeMillis();
@@ -112,6 +112,7 @@ class Clicker {
 		long downTime = SystemClock.uptimeMillis();
 		long eventTime = SystemClock.uptimeMillis();
 		MotionEvent event = MotionEvent.obtain(downTime, eventTime, MotionEvent.ACTION_DOWN, x, y, 0);
+		activityUtils.markTransitionStart();
 
 		while(!successfull && retry < 10) {
 			try{
@@ -370,11 +371,13 @@ class Clicker {
 
 			else{
 				ArrayList<TextView> allTextViews = RobotiumUtils.removeInvisibleViews(viewFetcher.getCurrentViews(TextView.class));
-				allTextViews.addAll((Collection<? extends TextView>) webUtils.getTextViewsFromWebView());
 
 				for (TextView textView : allTextViews) {
 					Log.d(LOG_TAG, "'" + regex + "' not found. Have found: '" + textView.getText() + "'");
 				}
+				for (TextMatch textMatch : webUtils.getTextMatchesFromWebView()) {
+					Log.d(LOG_TAG, "'" + regex + "' not found. Have found: '" + textMatch.getText() + "'");
+				}
 				allTextViews = null;
 				Assert.assertTrue("Text string: '" + regex + "' is not found!", false);
 			}	
@@ -1,6 +1,7 @@
 package com.jayway.android.robotium.solo;
 
-import java.nio.IntBuffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.concurrent.CountDownLatch;
 
 import javax.microedition.khronos.egl.EGLConfig;
@@ -29,6 +30,10 @@ class GLRenderWrapper implements Renderer {
 	private CountDownLatch latch;
 	private boolean takeScreenshot = true;
 	private int glVersion;
+	private ByteBuffer pixelBuffer;
+	private byte[] rowBuffer;
+	private byte[] swapBuffer;
+	private Bitmap bitmap;
 
 	/**
 	 * Constructs this object 
@@ -88,13 +93,7 @@ class GLRenderWrapper implements Renderer {
 	public void onDrawFrame(GL10 gl) {
 		renderer.onDrawFrame(gl);
 		if (takeScreenshot) {
-			Bitmap screenshot = null;
-
-			if (glVersion == 2) {
-				screenshot = savePixels(0, 0, width, height);
-			} else {
-				screenshot = savePixels(0, 0, width, height, gl);
-			}
+			Bitmap screenshot = savePixels(width, height, gl);
 
 			new Reflect(view).field("mDrawingCache").type(View.class)
 					.in(screenshot);
@@ -120,69 +119,52 @@ class GLRenderWrapper implements Renderer {
 	}
 
 	/**
-	 * Extract the bitmap from OpenGL 
+	 * Extract the bitmap from OpenGL. The pixels are read into a reused direct buffer, flipped 
+	 * in place row by row and copied into a reused bitmap. The byte order of the RGBA pixels read 
+	 * from OpenGL is the byte order of an ARGB_8888 bitmap, so they are not converted.
 	 * 
-	 * @param x the start column
-	 * @param y the start line
 	 * @param w the width of the bitmap
 	 * @param h the height of the bitmap
+	 * @param gl the current GL reference, used if OpenGL ES 2 is not used
 	 */
 	
-	private Bitmap savePixels(int x, int y, int w, int h) {
-		int b[] = new int[w * (y + h)];
-		int bt[] = new int[w * h];
-		IntBuffer ib = IntBuffer.wrap(b);
-		ib.position(0);
-		GLES20.glReadPixels(x, 0, w, y + h, GLES20.GL_RGBA,
-				GLES20.GL_UNSIGNED_BYTE, ib);
-
-		for (int i = 0, k = 0; i < h; i++, k++) {
-			// remember, that OpenGL bitmap is incompatible with Android bitmap
-			// and so, some correction need.
-			for (int j = 0; j < w; j++) {
-				int pix = b[i * w + j];
-				int pb = (pix >> 16) & 0xff;
-				int pr = (pix << 16) & 0x00ff0000;
-				int pix1 = (pix & 0xff00ff00) | pr | pb;
-				bt[(h - k - 1) * w + j] = pix1;
-			}
+	private Bitmap savePixels(int w, int h, GL10 gl) {
+		int rowLength = w * 4;
+
+		if (pixelBuffer == null || pixelBuffer.capacity() < rowLength * h) {
+			pixelBuffer = ByteBuffer.allocateDirect(rowLength * h).order(ByteOrder.nativeOrder());
 		}
+		if (rowBuffer == null || rowBuffer.length < rowLength) {
+			rowBuffer = new byte[rowLength];
+			swapBuffer = new byte[rowLength];
+		}
+		pixelBuffer.clear();
 
-		Bitmap sb = Bitmap.createBitmap(bt, w, h, Bitmap.Config.ARGB_8888);
-		return sb;
-	}
+		if (glVersion == 2) {
+			GLES20.glReadPixels(0, 0, w, h, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, pixelBuffer);
+		} else {
+			gl.glReadPixels(0, 0, w, h, GL10.GL_RGBA, GL10.GL_UNSIGNED_BYTE, pixelBuffer);
+		}
 
-	/**
-	 * Extract the bitmap from OpenGL 
-	 * 
-	 * @param x the start column
-	 * @param y the start line
-	 * @param w the width of the bitmap
-	 * @param h the height of the bitmap
-	 * @param gl the current GL reference
-	 */
-	
-	private static Bitmap savePixels(int x, int y, int w, int h, GL10 gl) {
-		int b[] = new int[w * (y + h)];
-		int bt[] = new int[w * h];
-		IntBuffer ib = IntBuffer.wrap(b);
-		ib.position(0);
-		gl.glReadPixels(x, 0, w, y + h, GL10.GL_RGBA, GL10.GL_UNSIGNED_BYTE, ib);
-
-		for (int i = 0, k = 0; i < h; i++, k++) {
-			// remember, that OpenGL bitmap is incompatible with Android bitmap
-			// and so, some correction need.
-			for (int j = 0; j < w; j++) {
-				int pix = b[i * w + j];
-				int pb = (pix >> 16) & 0xff;
-				int pr = (pix << 16) & 0x00ff0000;
-				int pix1 = (pix & 0xff00ff00) | pr | pb;
-				bt[(h - k - 1) * w + j] = pix1;
-			}
+		// remember, that OpenGL rows start at the bottom
+		for (int top = 0, bottom = h - 1; top < bottom; top++, bottom--) {
+			pixelBuffer.position(top * rowLength);
+			pixelBuffer.get(rowBuffer, 0, rowLength);
+			pixelBuffer.position(bottom * rowLength);
+			pixelBuffer.get(swapBuffer, 0, rowLength);
+			pixelBuffer.position(bottom * rowLength);
+			pixelBuffer.put(rowBuffer, 0, rowLength);
+			pixelBuffer.position(top * rowLength);
+			pixelBuffer.put(swapBuffer, 0, rowLength);
 		}
+		pixelBuffer.position(0);
+		pixelBuffer.limit(rowLength * h);
 
-		Bitmap sb = Bitmap.createBitmap(bt, w, h, Bitmap.Config.ARGB_8888);
-		return sb;
+		if (bitmap == null || bitmap.isRecycled() || bitmap.getWidth() != w || bitmap.getHeight() != h) {
+			bitmap = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+		}
+		bitmap.copyPixelsFromBuffer(pixelBuffer);
+		return bitmap;
 	}
 
 }
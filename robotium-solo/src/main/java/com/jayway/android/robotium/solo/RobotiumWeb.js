@@ -5,222 +5,405 @@
  * 
  */
 
-function allWebElements() {
-	for (var key in document.all){
-		try{
-			promptElement(document.all[key]);			
-		}catch(ignored){}
+/*
+ * The find functions return the matching nodes as arrays. The results are sent with collect(), 
+ * which writes the number of shown nodes followed by their records, and finished().
+ */
+
+function toArray(nodes) {
+	var array = [];
+	for (var i = 0; i < nodes.length; i++){
+		array.push(nodes[i]);
 	}
-	finished();
+	return array;
 }
 
-function allTexts() {
-	var range = document.createRange();
+function findElements(matches) {
+	var elements = [];
+	var walk=document.createTreeWalker(document.body,NodeFilter.SHOW_ELEMENT,null,false); 
+	while(n=walk.nextNode()){
+		try{
+			if(matches(n)){
+				elements.push(n);
+			}
+		}catch(ignored){} 
+	} 
+	return elements;
+}
+
+function findTexts(matches) {
+	var texts = [];
 	var walk=document.createTreeWalker(document.body,NodeFilter.SHOW_TEXT,null,false); 
 	while(n=walk.nextNode()){
 		try{
-			promptText(n, range);
-		}catch(ignored){}
+			if(matches(n.textContent)){
+				texts.push(n);
+			}
+		}catch(ignored){} 
 	} 
-	finished();
+	return texts;
+}
+
+function findAll() {
+	return toArray(document.getElementsByTagName('*'));
 }
 
-function id(id) {
+function findAllTexts() {
+	return findTexts(function(textContent){
+		return textContent.trim().length > 0;
+	});
+}
+
+function findById(id) {
 	var element = document.getElementById(id);
 	if(element != null){ 
-		promptElement(element);
+		return [element];
 	} 
-	else {
-		for (var key in document.all){
-			try{
-				element = document.all[key];
-				if(element.id == id) {
-					promptElement(element);
-				}
-			} catch(ignored){}			
-		}
+	return findElements(function(element){
+		return element.id == id;
+	});
+}
+
+function findByXpath(xpath) {
+	var elements = [];
+	var result = document.evaluate(xpath, document, null, XPathResult.ORDERED_NODE_SNAPSHOT_TYPE, null); 
+	for (var i = 0; i < result.snapshotLength; i++){
+		elements.push(result.snapshotItem(i));
 	}
-	finished(); 
+	return elements;
 }
 
-function xpath(xpath) {
-	var elements = document.evaluate(xpath, document, null, XPathResult.ORDERED_NODE_ITERATOR_TYPE, null); 
+function findByCssSelector(cssSelector) {
+	return toArray(document.querySelectorAll(cssSelector));
+}
 
-	if (elements){
-		var element = elements.iterateNext();
-		while(element) {
-			promptElement(element);
-			element = result.iterateNext();
-		}
-		finished();
+function findByName(name) {
+	return findElements(function(element){
+		var attributeName = element.getAttribute('name');
+		return attributeName != null && attributeName.trim().length>0 && attributeName == name;
+	});
+}
+
+function findByClassName(nameOfClass) {
+	return findElements(function(element){
+		var className = element.className; 
+		return className != null && className.trim().length>0 && className == nameOfClass;
+	});
+}
+
+function findByTextContent(text) {
+	return findTexts(function(textContent){
+		return textContent.trim() == text.trim();
+	});
+}
+
+function findByTagName(tagName) {
+	return toArray(document.getElementsByTagName(tagName));
+}
+
+function and() {
+	var nodes = arguments[0];
+	for (var i = 1; i < arguments.length; i++){
+		var others = arguments[i];
+		nodes = nodes.filter(function(node){
+			return others.indexOf(node) != -1;
+		});
 	}
+	return nodes;
 }
 
-function cssSelector(cssSelector) {
-	var elements = document.querySelectorAll(cssSelector);
-	for (var key in elements) {
-		if(elements != null){ 
-			try{
-				promptElement(elements[key]);
-			}catch(ignored){}  
+function or() {
+	var nodes = [];
+	for (var i = 0; i < arguments.length; i++){
+		var others = arguments[i];
+		for (var j = 0; j < others.length; j++){
+			if(nodes.indexOf(others[j]) == -1){
+				nodes.push(others[j]);
+			}
 		}
 	}
-	finished(); 
+	return nodes;
 }
 
-function name(name) {
-	var walk=document.createTreeWalker(document.body,NodeFilter.SHOW_ELEMENT,null,false); 
-	while(n=walk.nextNode()){
+function collect(nodes) {
+	var countIndex = robotiumResults.length;
+	var count = 0;
+	var range = document.createRange();
+	robotiumResults.push('');
+	for (var i = 0; i < nodes.length; i++){
+		var mark = robotiumResults.length;
 		try{
-			var attributeName = n.getAttribute('name');
-			if(attributeName != null && attributeName.trim().length>0 && attributeName == name){
-				promptElement(n);
+			var added = nodes[i].nodeType == 3 ? addText(nodes[i], range) : addElement(nodes[i]);
+			if(added){
+				count++;
 			}
-		}catch(ignored){} 
-	} 
-	finished();
+		}catch(ignored){
+			robotiumResults.length = mark;
+		}
+	}
+	robotiumResults[countIndex] = field(count);
 }
 
-function className(nameOfClass) {
-	var walk=document.createTreeWalker(document.body,NodeFilter.SHOW_ELEMENT,null,false); 
-	while(n=walk.nextNode()){
+/*
+ * Enters the text into the nodes, whether they are shown or not, and writes the number of 
+ * nodes the text was entered into followed by their records without attributes.
+ */
+function enterText(nodes, text, onlyFirst) {
+	var countIndex = robotiumResults.length;
+	var count = 0;
+	robotiumResults.push('');
+	for (var i = 0; i < nodes.length; i++){
+		var mark = robotiumResults.length;
 		try{
-			var className = n.className; 
-			if(className != null && className.trim().length>0 && className == nameOfClass) {
-				promptElement(n);
-			}
-		}catch(ignored){} 
-	} 
-	finished(); 
+			var element = nodes[i].nodeType == 3 ? nodes[i].parentNode : nodes[i];
+			element.value = text;
+			fireEvent(element, 'input');
+			fireEvent(element, 'change');
+			addRecord(element, text, element.getBoundingClientRect());
+			addField(0);
+			count++;
+		}catch(ignored){
+			robotiumResults.length = mark;
+		}
+		if(onlyFirst){
+			break;
+		}
+	}
+	robotiumResults[countIndex] = field(count);
 }
 
-function textContent(text) {
-	var range = document.createRange();
-	var walk=document.createTreeWalker(document.body,NodeFilter.SHOW_TEXT,null,false); 
-	while(n=walk.nextNode()){ 
-		try{
-			var textContent = n.textContent; 
-			if(textContent.trim() == text.trim()){  
-				promptText(n, range);
-			}
-		}catch(ignored){} 
-	} 
-	finished();  
+function fireEvent(element, type) {
+	var event = document.createEvent('HTMLEvents');
+	event.initEvent(type, true, false);
+	element.dispatchEvent(event);
 }
 
-function tagName(tagName) {
-	var elements = document.getElementsByTagName(tagName);
-	for (var key in elements) {
-		if(elements != null){ 
-			try{
-				promptElement(elements[key]);
-			}catch(ignored){}  
+var robotiumResults = [];
+var robotiumQueryId;
+
+/*
+ * The DOM version is bumped on every mutation, user input, scroll, resize, loaded resource and ended 
+ * transition or animation so that query results can be cached on the Java side. Values and checked states 
+ * set by scripts fire no event and are compared through a signature of the form fields instead. 
+ * The version starts at a random value so that versions of different pages do not collide, and is -1 
+ * if mutations can not be observed.
+ */
+var robotiumDomVersion;
+var robotiumFormSignature;
+
+if(window.robotiumObserver === undefined){
+	installDomObserver();
+}
+
+function installDomObserver() {
+	window.robotiumObserver = null;
+	robotiumDomVersion = Math.floor(Math.random() * 1000000000);
+	var Observer = window.MutationObserver || window.WebKitMutationObserver;
+	if(Observer){
+		var domChanged = function(){
+			robotiumDomVersion++;
+		};
+		window.robotiumObserver = new Observer(domChanged);
+		window.robotiumObserver.observe(document, {childList: true, subtree: true, attributes: true, characterData: true});
+		document.addEventListener('input', domChanged, true);
+		document.addEventListener('change', domChanged, true);
+		document.addEventListener('load', domChanged, true);
+		document.addEventListener('transitionend', domChanged, true);
+		document.addEventListener('webkitTransitionEnd', domChanged, true);
+		document.addEventListener('animationend', domChanged, true);
+		document.addEventListener('webkitAnimationEnd', domChanged, true);
+		window.addEventListener('scroll', domChanged, true);
+		window.addEventListener('resize', domChanged, true);
+		if(document.fonts && document.fonts.addEventListener){
+			document.fonts.addEventListener('loadingdone', domChanged);
 		}
+		robotiumFormSignature = formSignature();
+	}
+	else{
+		robotiumDomVersion = -1;
 	}
-	finished();
 }
 
-function enterTextById(id, text) {
-	var element = document.getElementById(id);
-	if(element != null)
-		element.value = text;
-
-	finished(); 
+function formSignature() {
+	var fields = document.querySelectorAll('input, textarea, select');
+	var signature = fields.length;
+	for (var i = 0; i < fields.length; i++){
+		var value = fields[i].value + (fields[i].checked ? '1' : '0');
+		for (var j = 0; j < value.length; j++){
+			signature = (signature * 31 + value.charCodeAt(j)) | 0;
+		}
+	}
+	return signature;
 }
 
-function enterTextByXpath(xpath, text) {
-	var element = document.evaluate(xpath, document, null, XPathResult.FIRST_ORDERED_NODE_TYPE, null ).singleNodeValue;
-	if(element != null)
-		element.value = text;
+function checkFormSignature() {
+	if(robotiumDomVersion != -1){
+		var signature = formSignature();
+		if(signature !== robotiumFormSignature){
+			robotiumFormSignature = signature;
+			robotiumDomVersion++;
+		}
+	}
+}
 
-	finished(); 
+function cached(version, query) {
+	checkFormSignature();
+	if(version != -1 && version == robotiumDomVersion){
+		robotiumResults = [];
+		sendResults(0);
+	}
+	else{
+		query();
+	}
 }
 
-function enterTextByCssSelector(cssSelector, text) {
-	var element = document.querySelector(cssSelector);
-	if(element != null)
-		element.value = text;
+function field(value) {
+	var field = '' + value;
+	return field.length + ':' + field;
+}
 
-	finished(); 
+function addField(value) {
+	robotiumResults.push(field(value));
 }
 
-function enterTextByName(name, text) {
-	var walk=document.createTreeWalker(document.body,NodeFilter.SHOW_ELEMENT,null,false); 
-	while(n=walk.nextNode()){
-		var attributeName = n.getAttribute('name');
-		if(attributeName != null && attributeName.trim().length>0 && attributeName == name) 
-			n.value=text;  
-	} 
-	finished();
+function addRecord(node, text, rect) {
+	addField(node.id);
+	addField(text);
+	addField(node.getAttribute('name'));
+	addField(node.className);
+	addField(node.tagName);
+	addField(Math.round(rect.left));
+	addField(Math.round(rect.top));
+	addField(Math.round(rect.width));
+	addField(Math.round(rect.height));
 }
 
-function enterTextByClassName(name, text) {
-	var walk=document.createTreeWalker(document.body,NodeFilter.SHOW_ELEMENT,null,false); 
-	while(n=walk.nextNode()){
-		var className = n.className; 
-		if(className != null && className.trim().length>0 && className == name) 
-			n.value=text;
+function isShown(rect, element) {
+	if(rect.width <= 0 || rect.height <= 0 || rect.right <= 0 || rect.bottom <= 0 || 
+			rect.left >= window.innerWidth || rect.top >= window.innerHeight){
+		return false;
 	}
-	finished();
+	var style = window.getComputedStyle(element);
+	return style.visibility != 'hidden' && style.display != 'none';
 }
 
-function enterTextByTextContent(textContent, text) {
-	var walk=document.createTreeWalker(document.body,NodeFilter.SHOW_TEXT,null,false); 
-	while(n=walk.nextNode()){ 
-		var textValue = n.textContent; 
-		if(textValue == textContent) 
-			n.parentNode.value = text; 
+function addElement(element) {
+	var rect = element.getBoundingClientRect();
+	if(isShown(rect, element)){
+		var text = element.innerText;
+		if(text.trim().length == 0){
+			text = element.value;
+		}
+		addRecord(element, text, rect);
+		var htmlAttributes = element.attributes;
+		addField(htmlAttributes.length);
+		for (var i = 0, htmlAttribute; htmlAttribute = htmlAttributes[i]; i++){
+			addField(htmlAttribute.name);
+			addField(htmlAttribute.value);
+		}
+		return true;
 	}
-	finished();
+	return false;
 }
 
-function enterTextByTagName(tagName, text) {
-	var elements = document.getElementsByTagName(tagName);
-	if(elements != null){
-		elements[0].value = text;
+function addText(element, range) {	
+	var text = element.textContent;
+	if(text.trim().length>0) {
+		range.selectNodeContents(element);
+		var rect = range.getBoundingClientRect();
+		if(isShown(rect, element.parentNode)){
+			addRecord(element.parentNode, text, rect);
+			addField(0);
+			return true;
+		}
 	}
-	finished();
+	return false;
 }
 
-function promptElement(element) {
-	var id = element.id;
-	var text = element.innerText;
-	if(text.trim().length == 0){
-		text = element.value;
+/*
+ * Watches wait for nodes to be shown. A watch checks its finder on every mutation, input, scroll 
+ * and resize and prompts 'robotium-found' with its id as soon as a found node is shown. 
+ * Installing a watch that is already installed only checks it again.
+ */
+window.robotiumWatches = window.robotiumWatches || {};
+
+function watch(waitId, find) {
+	if(robotiumWatches[waitId]){
+		robotiumWatches[waitId].schedule();
+		return;
 	}
-	var name = element.getAttribute('name');
-	var className = element.className;
-	var tagName = element.tagName;
-	var attributes = "";
-	var htmlAttributes = element.attributes;
-	for (var i = 0, htmlAttribute; htmlAttribute = htmlAttributes[i]; i++){
-		attributes += htmlAttribute.name + "::" + htmlAttribute.value;
-		if (i + 1 < htmlAttributes.length) {
-			attributes += "#$";
+	var watcher = {pending: false};
+	var check = function(){
+		watcher.pending = false;
+		if(robotiumWatches[waitId] !== watcher){
+			return;
+		}
+		try{
+			var nodes = find();
+			var range = document.createRange();
+			for (var i = 0; i < nodes.length; i++){
+				if(isNodeShown(nodes[i], range)){
+					unwatch(waitId);
+					prompt('robotium-found', '' + waitId);
+					return;
+				}
+			}
+		}catch(ignored){}
+	};
+	watcher.schedule = function(){
+		if(!watcher.pending){
+			watcher.pending = true;
+			setTimeout(check, 0);
 		}
+	};
+	robotiumWatches[waitId] = watcher;
+	var Observer = window.MutationObserver || window.WebKitMutationObserver;
+	if(Observer){
+		watcher.observer = new Observer(watcher.schedule);
+		watcher.observer.observe(document, {childList: true, subtree: true, attributes: true, characterData: true});
 	}
-	
-	var rect = element.getBoundingClientRect();
-	if(rect.width > 0 && rect.height > 0 && rect.left >= 0 && rect.top >= 0){
-		prompt(id + ';,' + text + ';,' + name + ";," + className + ";," + tagName + ";," + rect.left + ';,' + rect.top + ';,' + rect.width + ';,' + rect.height + ';,' + attributes);
+	else{
+		watcher.interval = setInterval(watcher.schedule, 100);
 	}
+	document.addEventListener('input', watcher.schedule, true);
+	document.addEventListener('change', watcher.schedule, true);
+	window.addEventListener('scroll', watcher.schedule, true);
+	window.addEventListener('resize', watcher.schedule, true);
+	watcher.schedule();
 }
 
-function promptText(element, range) {	
-	var text = element.textContent;
-	if(text.trim().length>0) {
-		range.selectNodeContents(element);
-		var rect = range.getBoundingClientRect();
-		if(rect.width > 0 && rect.height > 0 && rect.left >= 0 && rect.top >= 0){
-			var id = element.parentNode.id;
-			var name = element.parentNode.getAttribute('name');
-			var className = element.parentNode.className;
-			var tagName = element.parentNode.tagName;
-			prompt(id + ';,' + text + ';,' + name + ";," + className + ";," + tagName + ";," + rect.left + ';,' + rect.top + ';,' + rect.width + ';,' + rect.height);
+function unwatch(waitId) {
+	var watcher = robotiumWatches[waitId];
+	if(watcher){
+		delete robotiumWatches[waitId];
+		if(watcher.observer){
+			watcher.observer.disconnect();
 		}
+		if(watcher.interval){
+			clearInterval(watcher.interval);
+		}
+		document.removeEventListener('input', watcher.schedule, true);
+		document.removeEventListener('change', watcher.schedule, true);
+		window.removeEventListener('scroll', watcher.schedule, true);
+		window.removeEventListener('resize', watcher.schedule, true);
+	}
+}
+
+function isNodeShown(node, range) {
+	if(node.nodeType == 3){
+		range.selectNodeContents(node);
+		return isShown(range.getBoundingClientRect(), node.parentNode);
 	}
+	return isShown(node.getBoundingClientRect(), node);
+}
+
+function sendResults(changed){
+	checkFormSignature();
+	var results = field(robotiumQueryId) + field(robotiumDomVersion) + field(changed) + robotiumResults.join('');
+	robotiumResults = [];
+	prompt('robotium-finished', results);
 }
 
 function finished(){
-	prompt('robotium-finished');
+	sendResults(1);
 }
@@ -1,6 +1,7 @@
 package com.jayway.android.robotium.solo;
 
-import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 import android.app.Instrumentation;
 import android.graphics.Bitmap;
 import android.os.Message;
@@ -25,7 +26,10 @@ class RobotiumWebClient extends WebChromeClient{
 	WebElementCreator webElementCreator;
 	private Instrumentation inst;
 	private WebChromeClient robotiumWebClient;
-	private WebChromeClient originalWebChromeClient = null;
+	private volatile WebChromeClient originalWebChromeClient = null;
+	private final WeakHashMap<WebView, String> javaScriptInjectedUrls;
+	private final WeakHashMap<WebView, WebChromeClient> originalWebChromeClients;
+	private final WeakHashMap<WebView, Boolean> robotiumWebClientSet;
 
 
 	/**
@@ -39,50 +43,147 @@ class RobotiumWebClient extends WebChromeClient{
 		this.inst = inst;
 		this.webElementCreator = webElementCreator;
 		robotiumWebClient = this;
+		javaScriptInjectedUrls = new WeakHashMap<WebView, String>();
+		originalWebChromeClients = new WeakHashMap<WebView, WebChromeClient>();
+		robotiumWebClientSet = new WeakHashMap<WebView, Boolean>();
 	}
 
 	/**
-	 * Enables JavaScript in the given {@code WebViews} objects.
+	 * Enables JavaScript and sets this client in the given {@code WebView} objects, in one pass on the main thread. 
+	 * The original clients are remembered per {@code WebView} so that this only needs to be done once. 
+	 * A recorded original client is only replaced by another client, never by {@code null}.
 	 * 
-	 * @param webViews the {@code WebView} objects to enable JavaScript in
+	 * @param originalWebChromeClients the {@code WebView} objects to enable JavaScript in and the clients they used, 
+	 * {@code null} if unknown
 	 */
 
-	public void enableJavascriptAndSetRobotiumWebClient(List<WebView> webViews, WebChromeClient originalWebChromeClient){
-		this.originalWebChromeClient = originalWebChromeClient;
+	public void enableJavascriptAndSetRobotiumWebClient(final Map<WebView, WebChromeClient> originalWebChromeClients){
+		if(originalWebChromeClients.isEmpty()){
+			return;
+		}
+
+		inst.runOnMainSync(new Runnable() {
+			public void run() {
+				for(WebView webView : originalWebChromeClients.keySet()){
+					webView.getSettings().setJavaScriptEnabled(true);
+					webView.setWebChromeClient(robotiumWebClient);
+				}
+			}
+		});
+
+		synchronized (this) {
+			for(Map.Entry<WebView, WebChromeClient> entry : originalWebChromeClients.entrySet()){
+				robotiumWebClientSet.put(entry.getKey(), Boolean.TRUE);
+
+				if(entry.getValue() != null || !this.originalWebChromeClients.containsKey(entry.getKey())){
+					this.originalWebChromeClients.put(entry.getKey(), entry.getValue());
+				}
+				if(entry.getValue() != null){
+					originalWebChromeClient = entry.getValue();
+				}
+			}
+		}
+	}
 
-		for(final WebView webView : webViews){
+	/**
+	 * Checks if this client has been set in the given {@code WebView}.
+	 * 
+	 * @param webView the {@code WebView} to check
+	 * @return {@code true} if this client has been set in the {@code WebView}
+	 */
 
-			if(webView != null){ 
-				inst.runOnMainSync(new Runnable() {
-					public void run() {
-						webView.getSettings().setJavaScriptEnabled(true);
-						webView.setWebChromeClient(robotiumWebClient);
+	public synchronized boolean isRobotiumWebClientSet(WebView webView){
+		return robotiumWebClientSet.containsKey(webView);
+	}
 
-					}
-				});
-			}
+	/**
+	 * Resets the state of the given {@code WebView}, e.g. because it did not answer a query and the client might 
+	 * have been replaced. This client is set again and RobotiumWeb.js is injected again by the next query. 
+	 * The recorded original client is kept.
+	 * 
+	 * @param webView the {@code WebView} to reset
+	 */
+
+	public synchronized void resetRobotiumWebClient(WebView webView){
+		robotiumWebClientSet.remove(webView);
+		javaScriptInjectedUrls.remove(webView);
+	}
+
+	/**
+	 * Returns the client that the given {@code WebView} used before this client was set.
+	 * 
+	 * @param webView the {@code WebView} or {@code null} if unknown
+	 * @return the original client of the {@code WebView}, or the last known original client if the {@code WebView} is unknown
+	 */
+
+	private synchronized WebChromeClient getOriginalWebChromeClient(WebView webView){
+		if(webView != null && originalWebChromeClients.containsKey(webView)){
+			return originalWebChromeClients.get(webView);
+		}
+		return originalWebChromeClient;
+	}
+
+	/**
+	 * Checks if RobotiumWeb.js has been injected into the page currently shown in the given {@code WebView}.
+	 * Must be called on the main thread.
+	 * 
+	 * @param webView the {@code WebView} to check
+	 * @return {@code true} if RobotiumWeb.js has been injected into the current page
+	 */
+
+	public synchronized boolean isJavaScriptInjected(WebView webView){
+		if(!javaScriptInjectedUrls.containsKey(webView)){
+			return false;
 		}
+		String injectedUrl = javaScriptInjectedUrls.get(webView);
+		String url = webView.getUrl();
+		return injectedUrl == null ? url == null : injectedUrl.equals(url);
+	}
+
+	/**
+	 * Checks if RobotiumWeb.js is still known to be injected into the given {@code WebView}, that is if it has been 
+	 * injected and no page has started loading since then. Unlike {@link #isJavaScriptInjected(WebView)} it does not 
+	 * compare the URL and can be called on any thread.
+	 * 
+	 * @param webView the {@code WebView} to check
+	 * @return {@code true} if RobotiumWeb.js has been injected and no page has started loading since then
+	 */
+
+	public synchronized boolean isJavaScriptInjectionKept(WebView webView){
+		return javaScriptInjectedUrls.containsKey(webView);
+	}
+
+	/**
+	 * Records that RobotiumWeb.js has been injected into the page currently shown in the given {@code WebView}.
+	 * Must be called on the main thread.
+	 * 
+	 * @param webView the {@code WebView} that RobotiumWeb.js has been injected into
+	 */
+
+	public synchronized void setJavaScriptInjected(WebView webView){
+		javaScriptInjectedUrls.put(webView, webView.getUrl());
 	}
 
 	/**
-	 * Overrides onJsPrompt in order to create {@code WebElement} objects based on the web elements attributes prompted by the injections of JavaScript
+	 * Overrides onJsPrompt in order to create {@code WebElement} objects based on the web elements attributes prompted by the injections of JavaScript. 
+	 * All results of a query are delivered in one prompt as its default value
 	 */
 
 	@Override
 	public boolean onJsPrompt(WebView view, String url, String message,	String defaultValue, JsPromptResult r) {
 
-		if(message != null && (message.contains(";,") || message.contains("robotium-finished"))){
-
-			if(message.equals("robotium-finished")){
-				webElementCreator.setFinished(true);
-			}
-			else{
-				webElementCreator.createWebElementAndAddInList(message, view);
-			}
+		if(message != null && message.equals("robotium-finished")){
+			webElementCreator.setWebData(defaultValue, view);
+			r.confirm();
+			return true;
+		}
+		else if(message != null && message.equals("robotium-found")){
+			webElementCreator.setWebElementFound(defaultValue);
 			r.confirm();
 			return true;
 		}
 		else {
+			WebChromeClient originalWebChromeClient = getOriginalWebChromeClient(view);
 			if(originalWebChromeClient != null) {
 				return originalWebChromeClient.onJsPrompt(view, url, message, defaultValue, r); 
 			}
@@ -116,6 +217,7 @@ class RobotiumWebClient extends WebChromeClient{
 
 	@Override
 	public void onCloseWindow(WebView window) {
+		WebChromeClient originalWebChromeClient = getOriginalWebChromeClient(window);
 		if (originalWebChromeClient != null) {
 			originalWebChromeClient.onCloseWindow(window);
 		} 
@@ -138,6 +240,7 @@ class RobotiumWebClient extends WebChromeClient{
 
 	@Override
 	public boolean onCreateWindow(WebView view, boolean isDialog, boolean isUserGesture, Message resultMsg) {
+		WebChromeClient originalWebChromeClient = getOriginalWebChromeClient(view);
 		if (originalWebChromeClient != null) {
 			return originalWebChromeClient.onCreateWindow(view, isDialog, isUserGesture, resultMsg);
 		} 
@@ -175,6 +278,7 @@ class RobotiumWebClient extends WebChromeClient{
 
 	@Override
 	public boolean onJsAlert(WebView view, String url, String message, JsResult result) {
+		WebChromeClient originalWebChromeClient = getOriginalWebChromeClient(view);
 		if (originalWebChromeClient != null) {
 			return originalWebChromeClient.onJsAlert(view, url, message, result);
 		} 
@@ -183,7 +287,8 @@ class RobotiumWebClient extends WebChromeClient{
 
 	@Override
 	public boolean onJsBeforeUnload(WebView view, String url, String message, JsResult result) {
-		if (originalWebChromeClient.onJsBeforeUnload(view, url, message, result)) {
+		WebChromeClient originalWebChromeClient = getOriginalWebChromeClient(view);
+		if (originalWebChromeClient != null) {
 			return originalWebChromeClient.onJsBeforeUnload(view, url, message, result);
 		}
 		return true;
@@ -191,6 +296,7 @@ class RobotiumWebClient extends WebChromeClient{
 
 	@Override
 	public boolean onJsConfirm(WebView view, String url, String message, JsResult result) {
+		WebChromeClient originalWebChromeClient = getOriginalWebChromeClient(view);
 		if (originalWebChromeClient != null) {
 			return originalWebChromeClient.onJsConfirm(view, url, message, result);
 		} 
@@ -207,6 +313,11 @@ class RobotiumWebClient extends WebChromeClient{
 
 	@Override
 	public void onProgressChanged(WebView view, int newProgress) {
+		WebChromeClient originalWebChromeClient = getOriginalWebChromeClient(view);
+		synchronized (this) {
+			// A page is being loaded, RobotiumWeb.js needs to be injected again
+			javaScriptInjectedUrls.remove(view);
+		}
 		if (originalWebChromeClient != null) {            
 			originalWebChromeClient.onProgressChanged(view, newProgress);
 		} 
@@ -221,6 +332,7 @@ class RobotiumWebClient extends WebChromeClient{
 
 	@Override
 	public void onReceivedIcon(WebView view, Bitmap icon) {
+		WebChromeClient originalWebChromeClient = getOriginalWebChromeClient(view);
 		if (originalWebChromeClient != null) {
 			originalWebChromeClient.onReceivedIcon(view, icon);
 		} 
@@ -228,6 +340,7 @@ class RobotiumWebClient extends WebChromeClient{
 
 	@Override
 	public void onReceivedTitle(WebView view, String title) {
+		WebChromeClient originalWebChromeClient = getOriginalWebChromeClient(view);
 		if (originalWebChromeClient != null) {
 			originalWebChromeClient.onReceivedTitle(view, title);
 		} 
@@ -235,6 +348,7 @@ class RobotiumWebClient extends WebChromeClient{
 
 	@Override
 	public void onReceivedTouchIconUrl(WebView view, String url, boolean precomposed) {
+		WebChromeClient originalWebChromeClient = getOriginalWebChromeClient(view);
 		if (originalWebChromeClient != null) {
 			originalWebChromeClient.onReceivedTouchIconUrl(view, url, precomposed);
 		} 
@@ -242,6 +356,7 @@ class RobotiumWebClient extends WebChromeClient{
 
 	@Override
 	public void onRequestFocus(WebView view) {
+		WebChromeClient originalWebChromeClient = getOriginalWebChromeClient(view);
 		if (originalWebChromeClient != null) {
 			originalWebChromeClient.onRequestFocus(view);
 		}
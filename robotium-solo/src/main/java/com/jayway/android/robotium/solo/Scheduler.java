@@ -0,0 +1,210 @@
+package com.jayway.android.robotium.solo;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import android.util.Log;
+
+
+/**
+ * Runs the background work of Robotium, e.g. activity polling and screenshot saving.
+ * All instances share one process wide thread pool that is reference counted: it is
+ * created when the first instance is used and shut down when the last instance is released.
+ * An instance can give up the pool until it is used again with {@link #releaseUntilNextUse()}. 
+ * An instance released with {@link #release()} drops the tasks it is given instead of acquiring the pool again.
+ *
+ */
+
+class Scheduler {
+
+	static final int POOL_SIZE = 3;
+	private static final String LOG_TAG = "Robotium";
+	private static ScheduledThreadPoolExecutor executor;
+	private static int references = 0;
+	private static int createdThreads = 0;
+	private boolean acquired = false;
+	private boolean released = false;
+
+
+	/**
+	 * Schedules a task to be run once after the given delay.
+	 *
+	 * @param task the task to run
+	 * @param delay the delay in milliseconds
+	 * @return a {@code ScheduledFuture} that can be used to cancel the task, or {@code null} if this instance has been released
+	 */
+
+	public synchronized ScheduledFuture<?> schedule(Runnable task, long delay) {
+		ScheduledThreadPoolExecutor pool = getExecutor();
+
+		if(pool == null){
+			return null;
+		}
+		return pool.schedule(task, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Schedules a task to be run repeatedly with the given period.
+	 *
+	 * @param task the task to run
+	 * @param initialDelay the delay in milliseconds before the first run
+	 * @param period the period in milliseconds between the runs
+	 * @return a {@code ScheduledFuture} that can be used to cancel the task, or {@code null} if this instance has been released
+	 */
+
+	public synchronized ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long initialDelay, long period) {
+		ScheduledThreadPoolExecutor pool = getExecutor();
+
+		if(pool == null){
+			return null;
+		}
+		return pool.scheduleAtFixedRate(task, initialDelay, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Runs a task as soon as a thread is available.
+	 *
+	 * @param task the task to run
+	 * @return a {@code Future} representing the task, or {@code null} if this instance has been released
+	 */
+
+	public synchronized Future<?> execute(Runnable task) {
+		ScheduledThreadPoolExecutor pool = getExecutor();
+
+		if(pool == null){
+			return null;
+		}
+		return pool.submit(task);
+	}
+
+	/**
+	 * Releases this instance. The shared thread pool is shut down when the last instance is released:
+	 * the already submitted tasks are run and the pending delayed tasks are cancelled. Tasks given to
+	 * this instance after it has been released are dropped.
+	 */
+
+	public synchronized void release() {
+		released = true;
+		releaseUntilNextUse();
+	}
+
+	/**
+	 * Releases the shared thread pool held by this instance, which shuts it down if no other instance 
+	 * holds it. Unlike {@link #release()} this instance can still be used: the next task given to it 
+	 * acquires the pool again and creates it anew if needed.
+	 */
+
+	public synchronized void releaseUntilNextUse() {
+		if(acquired){
+			acquired = false;
+			releaseExecutor();
+		}
+	}
+
+	/**
+	 * Returns the number of threads in the shared thread pool.
+	 *
+	 * @return the number of threads in the shared thread pool
+	 */
+
+	public static synchronized int getThreadCount() {
+		if(executor == null){
+			return 0;
+		}
+		return executor.getPoolSize();
+	}
+
+	/**
+	 * Returns the number of threads in the shared thread pool that are running tasks.
+	 *
+	 * @return the number of threads that are running tasks
+	 */
+
+	public static synchronized int getActiveThreadCount() {
+		if(executor == null){
+			return 0;
+		}
+		return executor.getActiveCount();
+	}
+
+	/**
+	 * Returns the total number of threads created by the shared thread pools.
+	 *
+	 * @return the total number of threads created
+	 */
+
+	public static synchronized int getCreatedThreadCount() {
+		return createdThreads;
+	}
+
+	/**
+	 * Returns the number of instances currently holding the shared thread pool.
+	 *
+	 * @return the number of instances holding the shared thread pool
+	 */
+
+	public static synchronized int getReferenceCount() {
+		return references;
+	}
+
+	/**
+	 * Returns the shared thread pool, acquiring it if this instance does not hold it.
+	 *
+	 * @return the shared thread pool, or {@code null} if this instance has been released
+	 */
+
+	private synchronized ScheduledThreadPoolExecutor getExecutor() {
+		if(released){
+			Log.d(LOG_TAG, "The scheduler has been released, dropping the task");
+			return null;
+		}
+		if(!acquired){
+			acquireExecutor();
+			acquired = true;
+		}
+		return executor;
+	}
+
+	/**
+	 * Acquires the shared thread pool and creates it if needed.
+	 */
+
+	private static synchronized void acquireExecutor() {
+		if(executor == null){
+			executor = new ScheduledThreadPoolExecutor(POOL_SIZE, new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "Robotium-Scheduler-" + countCreatedThread());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		}
+		references++;
+	}
+
+	/**
+	 * Counts a thread created by the shared thread pool.
+	 *
+	 * @return the number of threads created so far
+	 */
+
+	private static synchronized int countCreatedThread() {
+		return ++createdThreads;
+	}
+
+	/**
+	 * Releases the shared thread pool and shuts it down when it is no longer held.
+	 */
+
+	private static synchronized void releaseExecutor() {
+		references--;
+
+		if(references == 0 && executor != null){
+			executor.shutdown();
+			executor = null;
+		}
+	}
+}
@@ -0,0 +1,339 @@
+package com.jayway.android.robotium.solo;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.zip.Deflater;
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.util.Log;
+
+
+/**
+ * Writes a screenshot sequence as one file of delta encoded frames. Every frame is split into tiles
+ * and only the tiles whose hash differs from the previous frame are stored. All tiles are stored in
+ * keyframes, which are written for the first frame, when the size changes and at a given interval.
+ * The file is read by {@link ScreenshotSequenceDecoder}.
+ * <p>
+ * The file starts with the magic number, the version and the tile size. Every frame is written as
+ * the frame number, the time it was taken, the width, the height, whether it is a keyframe, the number
+ * of tiles, the length of the compressed tiles and the tiles compressed with {@code Deflater}. Every
+ * tile is its index followed by its ARGB pixels, row by row. All numbers are written big endian.
+ *
+ */
+
+class ScreenshotDeltaEncoder {
+
+	static final int TILE_SIZE = 32;
+	private static final long FRAME_TIMEOUT = 10000;
+	private final String LOG_TAG = "Robotium";
+	private final DataOutputStream outputStream;
+	private final int keyframeInterval;
+	private final Deflater deflater;
+	private final ByteArrayOutputStream tileBytes;
+	private final DataOutputStream tileOutputStream;
+	private final byte[] compressBuffer;
+	private final Set<Integer> skippedTickets;
+	private int[] pixels;
+	private long[] tileHashes;
+	private int width = -1;
+	private int height = -1;
+	private int framesSinceKeyframe = 0;
+	private int nextTicket = 0;
+	private int currentTicket = 0;
+	private boolean finishing = false;
+	private boolean closed = false;
+
+
+	/**
+	 * Constructs this object and writes the header of the file.
+	 *
+	 * @param file the file to write
+	 * @param keyframeInterval the number of frames between keyframes
+	 * @throws IOException if the file can not be written
+	 */
+
+	public ScreenshotDeltaEncoder(File file, int keyframeInterval) throws IOException {
+		this.keyframeInterval = keyframeInterval < 1 ? 1 : keyframeInterval;
+		outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+		deflater = new Deflater(Deflater.BEST_SPEED);
+		tileBytes = new ByteArrayOutputStream();
+		tileOutputStream = new DataOutputStream(tileBytes);
+		compressBuffer = new byte[16 * 1024];
+		skippedTickets = new HashSet<Integer>();
+		outputStream.writeInt(ScreenshotSequenceDecoder.MAGIC);
+		outputStream.writeInt(ScreenshotSequenceDecoder.VERSION);
+		outputStream.writeInt(TILE_SIZE);
+	}
+
+	/**
+	 * Returns a ticket that decides the order frames are encoded in. Frames can be encoded
+	 * on several threads and every frame waits until the frames with earlier tickets are encoded or skipped.
+	 *
+	 * @return the ticket of the next frame
+	 */
+
+	public synchronized int takeTicket() {
+		return nextTicket++;
+	}
+
+	/**
+	 * Skips the frame of the given ticket, e.g. because it has been dropped.
+	 *
+	 * @param ticket the ticket of the frame
+	 */
+
+	public synchronized void skip(int ticket) {
+		if(ticket >= currentTicket) {
+			skippedTickets.add(ticket);
+		}
+		advance();
+	}
+
+	/**
+	 * Encodes a frame when the frames with earlier tickets have been encoded or skipped. The frames
+	 * with earlier tickets are given up on if they are not done within {@code FRAME_TIMEOUT} milliseconds,
+	 * and are not encoded if they arrive later.
+	 *
+	 * @param ticket the ticket of the frame
+	 * @param frameNumber the number of the frame in the sequence
+	 * @param time the time the frame was taken, in milliseconds
+	 * @param bitmap the frame
+	 */
+
+	public synchronized void encodeFrame(int ticket, int frameNumber, long time, Bitmap bitmap) {
+		long endTime = SystemClock.uptimeMillis() + FRAME_TIMEOUT;
+
+		while(ticket > currentTicket) {
+			long timeLeft = endTime - SystemClock.uptimeMillis();
+
+			if(timeLeft <= 0) {
+				Log.d(LOG_TAG, "giving up on screenshot frames with tickets " + currentTicket + " to " + (ticket - 1));
+				giveUpBefore(ticket);
+				break;
+			}
+			try {
+				wait(timeLeft);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				skip(ticket);
+				return;
+			}
+		}
+		if(ticket < currentTicket) {
+			Log.d(LOG_TAG, "dropping screenshot frame " + frameNumber + ", the sequence has moved past it");
+			return;
+		}
+		try {
+			if(!closed) {
+				writeFrame(frameNumber, time, bitmap);
+			}
+		} catch (IOException e) {
+			Log.d(LOG_TAG, "Can't save the screenshot sequence! Requires write permission (android.permission.WRITE_EXTERNAL_STORAGE) in AndroidManifest.xml of the application under test.");
+			e.printStackTrace();
+			close();
+		}
+		currentTicket++;
+		advance();
+	}
+
+	/**
+	 * Closes the file once the frames of all taken tickets have been encoded or skipped.
+	 */
+
+	public synchronized void finish() {
+		finishing = true;
+		advance();
+	}
+
+	/**
+	 * Moves past skipped tickets, wakes up the waiting frames and closes the file if it is finished.
+	 */
+
+	private void advance() {
+		while(skippedTickets.remove(currentTicket)) {
+			currentTicket++;
+		}
+		notifyAll();
+
+		if(finishing && currentTicket == nextTicket) {
+			close();
+		}
+	}
+
+	/**
+	 * Moves to the given ticket without waiting any longer for the frames with earlier tickets.
+	 *
+	 * @param ticket the ticket to move to
+	 */
+
+	private void giveUpBefore(int ticket) {
+		for(Iterator<Integer> iterator = skippedTickets.iterator(); iterator.hasNext();) {
+			if(iterator.next() < ticket) {
+				iterator.remove();
+			}
+		}
+		currentTicket = ticket;
+	}
+
+	/**
+	 * Writes a frame with the tiles that have changed since the previous frame.
+	 *
+	 * @param frameNumber the number of the frame in the sequence
+	 * @param time the time the frame was taken, in milliseconds
+	 * @param bitmap the frame
+	 * @throws IOException if the frame can not be written
+	 */
+
+	private void writeFrame(int frameNumber, long time, Bitmap bitmap) throws IOException {
+		int frameWidth = bitmap.getWidth();
+		int frameHeight = bitmap.getHeight();
+
+		if(pixels == null || pixels.length < frameWidth * frameHeight) {
+			pixels = new int[frameWidth * frameHeight];
+		}
+		bitmap.getPixels(pixels, 0, frameWidth, 0, 0, frameWidth, frameHeight);
+		writeFrame(frameNumber, time, pixels, frameWidth, frameHeight);
+	}
+
+	/**
+	 * Writes a frame of ARGB pixels with the tiles that have changed since the previous frame.
+	 *
+	 * @param frameNumber the number of the frame in the sequence
+	 * @param time the time the frame was taken, in milliseconds
+	 * @param framePixels the ARGB pixels of the frame, row by row
+	 * @param frameWidth the width of the frame
+	 * @param frameHeight the height of the frame
+	 * @throws IOException if the frame can not be written
+	 */
+
+	void writeFrame(int frameNumber, long time, int[] framePixels, int frameWidth, int frameHeight) throws IOException {
+		int tilesX = (frameWidth + TILE_SIZE - 1) / TILE_SIZE;
+		int tilesY = (frameHeight + TILE_SIZE - 1) / TILE_SIZE;
+		boolean keyframe = frameWidth != width || frameHeight != height || framesSinceKeyframe >= keyframeInterval;
+
+		if(keyframe) {
+			tileHashes = new long[tilesX * tilesY];
+			width = frameWidth;
+			height = frameHeight;
+			framesSinceKeyframe = 0;
+		}
+		tileBytes.reset();
+		int numberOfTiles = 0;
+
+		for(int tileY = 0; tileY < tilesY; tileY++) {
+			for(int tileX = 0; tileX < tilesX; tileX++) {
+				int tileIndex = tileY * tilesX + tileX;
+				long hash = hashTile(framePixels, tileX * TILE_SIZE, tileY * TILE_SIZE, frameWidth, frameHeight);
+
+				if(keyframe || hash != tileHashes[tileIndex]) {
+					tileHashes[tileIndex] = hash;
+					writeTile(framePixels, tileIndex, tileX * TILE_SIZE, tileY * TILE_SIZE, frameWidth, frameHeight);
+					numberOfTiles++;
+				}
+			}
+		}
+		framesSinceKeyframe++;
+
+		outputStream.writeInt(frameNumber);
+		outputStream.writeLong(time);
+		outputStream.writeInt(frameWidth);
+		outputStream.writeInt(frameHeight);
+		outputStream.writeBoolean(keyframe);
+		outputStream.writeInt(numberOfTiles);
+		writeCompressed(tileBytes.toByteArray());
+	}
+
+	/**
+	 * Returns a 64 bit FNV-1a hash of the pixels of a tile.
+	 *
+	 * @param framePixels the pixels of the frame
+	 * @param left the left edge of the tile
+	 * @param top the top edge of the tile
+	 * @param frameWidth the width of the frame
+	 * @param frameHeight the height of the frame
+	 * @return the hash of the tile
+	 */
+
+	private long hashTile(int[] framePixels, int left, int top, int frameWidth, int frameHeight) {
+		int right = Math.min(left + TILE_SIZE, frameWidth);
+		int bottom = Math.min(top + TILE_SIZE, frameHeight);
+		long hash = 0xcbf29ce484222325L;
+
+		for(int y = top; y < bottom; y++) {
+			for(int index = y * frameWidth + left, end = y * frameWidth + right; index < end; index++) {
+				hash = (hash ^ framePixels[index]) * 0x100000001b3L;
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * Writes the index and the pixels of a tile to the tile bytes.
+	 *
+	 * @param framePixels the pixels of the frame
+	 * @param tileIndex the index of the tile
+	 * @param left the left edge of the tile
+	 * @param top the top edge of the tile
+	 * @param frameWidth the width of the frame
+	 * @param frameHeight the height of the frame
+	 * @throws IOException if the tile can not be written
+	 */
+
+	private void writeTile(int[] framePixels, int tileIndex, int left, int top, int frameWidth, int frameHeight) throws IOException {
+		int right = Math.min(left + TILE_SIZE, frameWidth);
+		int bottom = Math.min(top + TILE_SIZE, frameHeight);
+		tileOutputStream.writeInt(tileIndex);
+
+		for(int y = top; y < bottom; y++) {
+			for(int index = y * frameWidth + left, end = y * frameWidth + right; index < end; index++) {
+				tileOutputStream.writeInt(framePixels[index]);
+			}
+		}
+	}
+
+	/**
+	 * Writes the length of the compressed data followed by the data compressed with {@code Deflater}.
+	 *
+	 * @param data the data to compress
+	 * @throws IOException if the data can not be written
+	 */
+
+	private void writeCompressed(byte[] data) throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 4 + 64);
+		deflater.reset();
+		deflater.setInput(data);
+		deflater.finish();
+
+		while(!deflater.finished()) {
+			int length = deflater.deflate(compressBuffer);
+			compressed.write(compressBuffer, 0, length);
+		}
+		outputStream.writeInt(compressed.size());
+		compressed.writeTo(outputStream);
+	}
+
+	/**
+	 * Closes the file.
+	 */
+
+	private void close() {
+		if(closed) {
+			return;
+		}
+		closed = true;
+		deflater.end();
+
+		try {
+			outputStream.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,364 @@
+package com.jayway.android.robotium.solo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/**
+ * Rebuilds the frames of a delta encoded screenshot sequence and saves them as PNG images.
+ * Only uses the Java standard library so that it can be run on a plain JVM, e.g. after pulling the sequence
+ * from the device:
+ * <p>
+ * {@code java -cp robotium-solo.jar com.jayway.android.robotium.solo.ScreenshotSequenceDecoder name.rsq outputDirectory}
+ * <p>
+ * The frames are saved as name_frameNumber.png.
+ *
+ */
+
+public class ScreenshotSequenceDecoder {
+
+	static final int MAGIC = 0x52534551;
+	static final int VERSION = 1;
+	private final DataInputStream inputStream;
+	private final int tileSize;
+	private final Inflater inflater;
+	private int[] pixels;
+	private int width;
+	private int height;
+	private int frameNumber;
+	private long time;
+	private boolean keyframe;
+	private int numberOfTiles;
+
+
+	/**
+	 * Decodes a sequence from the command line.
+	 *
+	 * @param args the sequence file and the directory to save the frames in
+	 * @throws IOException if the sequence can not be read or a frame can not be saved
+	 */
+
+	public static void main(String[] args) throws IOException {
+		if(args.length != 2) {
+			System.err.println("Usage: ScreenshotSequenceDecoder <sequence file> <output directory>");
+			System.exit(1);
+		}
+		File sequenceFile = new File(args[0]);
+		File directory = new File(args[1]);
+		directory.mkdirs();
+		String name = sequenceFile.getName();
+
+		if(name.endsWith(".rsq")) {
+			name = name.substring(0, name.length() - 4);
+		}
+		ScreenshotSequenceDecoder decoder = new ScreenshotSequenceDecoder(new FileInputStream(sequenceFile));
+		int numberOfFrames = 0;
+
+		try {
+			while(decoder.nextFrame()) {
+				OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(new File(directory, name + "_" + decoder.getFrameNumber() + ".png")));
+				try {
+					decoder.writePng(outputStream);
+				} finally {
+					outputStream.close();
+				}
+				numberOfFrames++;
+			}
+		} finally {
+			decoder.close();
+		}
+		System.out.println("Saved " + numberOfFrames + " frames in " + directory);
+	}
+
+	/**
+	 * Constructs this object and reads the header of the sequence.
+	 *
+	 * @param inputStream the sequence to read
+	 * @throws IOException if the header can not be read or is not the header of a sequence
+	 */
+
+	public ScreenshotSequenceDecoder(InputStream inputStream) throws IOException {
+		this.inputStream = new DataInputStream(new BufferedInputStream(inputStream, 64 * 1024));
+		inflater = new Inflater();
+
+		if(this.inputStream.readInt() != MAGIC) {
+			throw new IOException("Not a screenshot sequence");
+		}
+		int version = this.inputStream.readInt();
+
+		if(version != VERSION) {
+			throw new IOException("Unsupported screenshot sequence version: " + version);
+		}
+		tileSize = this.inputStream.readInt();
+	}
+
+	/**
+	 * Reads the next frame and applies its tiles to the current frame.
+	 *
+	 * @return {@code true} if a frame was read and {@code false} at the end of the sequence
+	 * @throws IOException if the frame can not be read
+	 */
+
+	public boolean nextFrame() throws IOException {
+		try {
+			frameNumber = inputStream.readInt();
+		} catch (EOFException e) {
+			return false;
+		}
+		time = inputStream.readLong();
+		int frameWidth = inputStream.readInt();
+		int frameHeight = inputStream.readInt();
+		keyframe = inputStream.readBoolean();
+		numberOfTiles = inputStream.readInt();
+		byte[] compressed = new byte[inputStream.readInt()];
+		inputStream.readFully(compressed);
+
+		if(keyframe || pixels == null) {
+			width = frameWidth;
+			height = frameHeight;
+			pixels = new int[width * height];
+		}
+		else if(frameWidth != width || frameHeight != height) {
+			throw new IOException("Frame " + frameNumber + " changes the size without being a keyframe");
+		}
+		DataInputStream tiles = new DataInputStream(new ByteArrayInputStream(inflate(compressed)));
+		int tilesX = (width + tileSize - 1) / tileSize;
+
+		for(int i = 0; i < numberOfTiles; i++) {
+			int tileIndex = tiles.readInt();
+			int left = (tileIndex % tilesX) * tileSize;
+			int top = (tileIndex / tilesX) * tileSize;
+			int right = Math.min(left + tileSize, width);
+			int bottom = Math.min(top + tileSize, height);
+
+			for(int y = top; y < bottom; y++) {
+				for(int index = y * width + left, end = y * width + right; index < end; index++) {
+					pixels[index] = tiles.readInt();
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of the current frame in the sequence.
+	 *
+	 * @return the frame number
+	 */
+
+	public int getFrameNumber() {
+		return frameNumber;
+	}
+
+	/**
+	 * Returns the time the current frame was taken.
+	 *
+	 * @return the time in milliseconds
+	 */
+
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * Returns whether the current frame is a keyframe, which stores all of its tiles.
+	 *
+	 * @return {@code true} if the current frame is a keyframe
+	 */
+
+	public boolean isKeyframe() {
+		return keyframe;
+	}
+
+	/**
+	 * Returns the number of tiles stored in the current frame.
+	 *
+	 * @return the number of tiles
+	 */
+
+	public int getNumberOfTiles() {
+		return numberOfTiles;
+	}
+
+	/**
+	 * Returns the width of the current frame.
+	 *
+	 * @return the width
+	 */
+
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the height of the current frame.
+	 *
+	 * @return the height
+	 */
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the ARGB pixels of the current frame, row by row. The array is updated by {@link #nextFrame()}.
+	 *
+	 * @return the pixels
+	 */
+
+	public int[] getPixels() {
+		return pixels;
+	}
+
+	/**
+	 * Writes the current frame as a PNG image.
+	 *
+	 * @param outputStream the stream to write the image to
+	 * @throws IOException if the image can not be written
+	 */
+
+	public void writePng(OutputStream outputStream) throws IOException {
+		writePng(outputStream, pixels, width, height);
+	}
+
+	/**
+	 * Closes the sequence.
+	 *
+	 * @throws IOException if the sequence can not be closed
+	 */
+
+	public void close() throws IOException {
+		inflater.end();
+		inputStream.close();
+	}
+
+	/**
+	 * Writes ARGB pixels as an 8 bit RGBA PNG image without filtering.
+	 *
+	 * @param outputStream the stream to write the image to
+	 * @param pixels the ARGB pixels, row by row
+	 * @param width the width of the image
+	 * @param height the height of the image
+	 * @throws IOException if the image can not be written
+	 */
+
+	static void writePng(OutputStream outputStream, int[] pixels, int width, int height) throws IOException {
+		DataOutputStream pngOutputStream = new DataOutputStream(outputStream);
+		pngOutputStream.write(new byte[] {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'});
+
+		ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+		DataOutputStream headerOutputStream = new DataOutputStream(header);
+		headerOutputStream.writeInt(width);
+		headerOutputStream.writeInt(height);
+		headerOutputStream.writeByte(8);
+		headerOutputStream.writeByte(6);
+		headerOutputStream.writeByte(0);
+		headerOutputStream.writeByte(0);
+		headerOutputStream.writeByte(0);
+		writeChunk(pngOutputStream, "IHDR", header.toByteArray());
+
+		byte[] rows = new byte[(width * 4 + 1) * height];
+		int position = 0;
+
+		for(int y = 0; y < height; y++) {
+			rows[position++] = 0;
+
+			for(int index = y * width, end = index + width; index < end; index++) {
+				int pixel = pixels[index];
+				rows[position++] = (byte) (pixel >> 16);
+				rows[position++] = (byte) (pixel >> 8);
+				rows[position++] = (byte) pixel;
+				rows[position++] = (byte) (pixel >>> 24);
+			}
+		}
+		writeChunk(pngOutputStream, "IDAT", deflate(rows));
+		writeChunk(pngOutputStream, "IEND", new byte[0]);
+		pngOutputStream.flush();
+	}
+
+	/**
+	 * Writes a PNG chunk: the length, the type, the data and the CRC of the type and the data.
+	 *
+	 * @param outputStream the stream to write the chunk to
+	 * @param type the type of the chunk
+	 * @param data the data of the chunk
+	 * @throws IOException if the chunk can not be written
+	 */
+
+	private static void writeChunk(DataOutputStream outputStream, String type, byte[] data) throws IOException {
+		byte[] typeBytes = type.getBytes("US-ASCII");
+		CRC32 crc = new CRC32();
+		crc.update(typeBytes);
+		crc.update(data);
+		outputStream.writeInt(data.length);
+		outputStream.write(typeBytes);
+		outputStream.write(data);
+		outputStream.writeInt((int) crc.getValue());
+	}
+
+	/**
+	 * Compresses data in the zlib format.
+	 *
+	 * @param data the data to compress
+	 * @return the compressed data
+	 */
+
+	private static byte[] deflate(byte[] data) {
+		Deflater deflater = new Deflater();
+		deflater.setInput(data);
+		deflater.finish();
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 4 + 64);
+		byte[] buffer = new byte[16 * 1024];
+
+		while(!deflater.finished()) {
+			int length = deflater.deflate(buffer);
+			compressed.write(buffer, 0, length);
+		}
+		deflater.end();
+		return compressed.toByteArray();
+	}
+
+	/**
+	 * Decompresses the tiles of a frame.
+	 *
+	 * @param compressed the compressed tiles
+	 * @return the tiles
+	 * @throws IOException if the tiles are corrupt
+	 */
+
+	private byte[] inflate(byte[] compressed) throws IOException {
+		inflater.reset();
+		inflater.setInput(compressed);
+		ByteArrayOutputStream tiles = new ByteArrayOutputStream(compressed.length * 4);
+		byte[] buffer = new byte[16 * 1024];
+
+		try {
+			while(!inflater.finished()) {
+				int length = inflater.inflate(buffer);
+
+				if(length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IOException("Frame " + frameNumber + " is truncated");
+				}
+				tiles.write(buffer, 0, length);
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Frame " + frameNumber + " is corrupt: " + e.getMessage());
+		}
+		return tiles.toByteArray();
+	}
+}
@@ -2,19 +2,19 @@ package com.jayway.android.robotium.solo;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Picture;
 import android.opengl.GLSurfaceView;
 import android.opengl.GLSurfaceView.Renderer;
 import android.os.Environment;
-import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.Message;
 import android.os.SystemClock;
 import android.util.Log;
 import android.view.View;
@@ -31,13 +31,22 @@ import android.webkit.WebView;
 
 class ScreenshotTaker {
 
+	static final int BLOCK = 0;
+	static final int DROP_OLDEST = 1;
+	static final int DROP_NEWEST = 2;
+	static final int MAX_ENCODERS = Scheduler.POOL_SIZE - 1;
+	private static final int DEFAULT_ENCODERS = 2;
+	private static final int DEFAULT_QUEUE_CAPACITY = 3;
+	private static final int MIN_FRAME_DELAY = 10;
 	private final ActivityUtils activityUtils;
 	private final String LOG_TAG = "Robotium";
-	private ScreenshotSequenceThread screenshotSequenceThread = null;
-	private HandlerThread screenShotSaverThread = null;
-	private ScreenShotSaver screenShotSaver = null;
+	private volatile ScreenshotSequence screenshotSequence = null;
+	private volatile ScreenshotSequence lastScreenshotSequence = null;
+	private final ScreenShotSaver screenShotSaver;
 	private final ViewFetcher viewFetcher;
 	private final Sleeper sleeper;
+	private final Scheduler scheduler;
+	private final BitmapPool bitmapPool;
 
 
 	/**
@@ -46,12 +55,16 @@ class ScreenshotTaker {
 	 * @param activityUtils the {@code ActivityUtils} instance
 	 * @param viewFetcher the {@code ViewFetcher} instance
 	 * @param sleeper the {@code Sleeper} instance
+	 * @param scheduler the {@code Scheduler} instance
 	 * 
 	 */
-	ScreenshotTaker(ActivityUtils activityUtils, ViewFetcher viewFetcher, Sleeper sleeper) {
+	ScreenshotTaker(ActivityUtils activityUtils, ViewFetcher viewFetcher, Sleeper sleeper, Scheduler scheduler) {
 		this.activityUtils = activityUtils;
 		this.viewFetcher = viewFetcher;
 		this.sleeper = sleeper;
+		this.scheduler = scheduler;
+		this.screenShotSaver = new ScreenShotSaver();
+		this.bitmapPool = new BitmapPool();
 	}
 
 	/**
@@ -63,11 +76,15 @@ class ScreenshotTaker {
 	 * @param quality the compression rate. From 0 (compress for lowest size) to 100 (compress for maximum quality).
 	 */
 	public void takeScreenshot(final String name, final int quality) {
+		if(!screenShotSaver.reserve())
+			return;
+
 		View decorView = getScreenshotView();
-		if(decorView == null) 
+		if(decorView == null) {
+			screenShotSaver.cancel();
 			return;
+		}
 
-		initScreenShotSaver();
 		ScreenshotRunnable runnable = new ScreenshotRunnable(decorView, name, quality);
 		activityUtils.getCurrentActivity().runOnUiThread(runnable);
 	}
@@ -96,15 +113,59 @@ class ScreenshotTaker {
 	 *
 	 */
 	public void startScreenshotSequence(final String name, final int quality, final int frameDelay, final int maxFrames) {
-		initScreenShotSaver();
+		if(screenshotSequence != null) {
+			throw new RuntimeException("only one screenshot sequence is supported at a time");
+		}
+
+		screenshotSequence = new ScreenshotSequence(name, quality, frameDelay, maxFrames, null);
+		lastScreenshotSequence = screenshotSequence;
 
-		if(screenshotSequenceThread != null) {
+		if(scheduler.execute(screenshotSequence) == null) {
+			screenshotSequence.stop();
+			screenshotSequence = null;
+		}
+	}
+
+	/**
+	 * Takes a delta encoded screenshot sequence and saves it as "/sdcard/Robotium-Screenshots/name.rsq". 
+	 * Only the parts of a frame that have changed since the previous frame are saved, except in keyframes. 
+	 * The frames can be rebuilt as PNG images with {@link ScreenshotSequenceDecoder}.
+	 *
+	 * Requires write permission (android.permission.WRITE_EXTERNAL_STORAGE) in the 
+	 * AndroidManifest.xml of the application under test.
+	 *
+	 * This method will throw an exception if stopScreenshotSequence() has not been
+	 * called to finish any prior sequences.
+	 *
+	 * @param name the name to give the sequence file
+	 * @param frameDelay the time in milliseconds to wait between each frame
+	 * @param maxFrames the maximum number of frames that will comprise this sequence
+	 * @param keyframeInterval the number of frames between frames that are saved completely
+	 *
+	 */
+	public void startDeltaScreenshotSequence(final String name, final int frameDelay, final int maxFrames, final int keyframeInterval) {
+		if(screenshotSequence != null) {
 			throw new RuntimeException("only one screenshot sequence is supported at a time");
 		}
+		File directory = new File(Environment.getExternalStorageDirectory() + "/Robotium-Screenshots/");
+		directory.mkdir();
+		ScreenshotDeltaEncoder deltaEncoder;
 
-		screenshotSequenceThread = new ScreenshotSequenceThread(name, quality, frameDelay, maxFrames);
+		try {
+			deltaEncoder = new ScreenshotDeltaEncoder(new File(directory, name + ".rsq"), keyframeInterval);
+		} catch (IOException e) {
+			Log.d(LOG_TAG, "Can't save the screenshot sequence! Requires write permission (android.permission.WRITE_EXTERNAL_STORAGE) in AndroidManifest.xml of the application under test.");
+			e.printStackTrace();
+			return;
+		}
 
-		screenshotSequenceThread.start();
+		screenshotSequence = new ScreenshotSequence(name, 0, frameDelay, maxFrames, deltaEncoder);
+		lastScreenshotSequence = screenshotSequence;
+
+		if(scheduler.execute(screenshotSequence) == null) {
+			screenshotSequence.stop();
+			screenshotSequence = null;
+		}
 	}
 
 	/**
@@ -114,12 +175,68 @@ class ScreenshotTaker {
 	 * progress, startScreenshotSequence() will throw an exception.
 	 */
 	public void stopScreenshotSequence() {
-		if(screenshotSequenceThread != null) {
-			screenshotSequenceThread.interrupt();
-			screenshotSequenceThread = null;
+		if(screenshotSequence != null) {
+			screenshotSequence.stop();
+			screenshotSequence = null;
+			bitmapPool.clear();
 		}
 	}
 
+	/**
+	 * Sets how screenshots are encoded and saved. Screenshots waiting to be encoded are queued, and 
+	 * the overflow policy decides what happens when the queue is full: {@link #BLOCK} waits 
+	 * before taking the next screenshot, {@link #DROP_OLDEST} drops the oldest queued screenshot and 
+	 * {@link #DROP_NEWEST} does not take the new screenshot. The encoders run on the shared {@link Scheduler}, 
+	 * so at most {@link #MAX_ENCODERS} are allowed to leave a thread for the activity monitor and the screenshot sequence.
+	 * 
+	 * @param numberOfEncoders the maximum number of screenshots encoded at the same time on the background threads, 
+	 * from 1 to {@link #MAX_ENCODERS}
+	 * @param queueCapacity the maximum number of screenshots waiting to be encoded
+	 * @param overflowPolicy {@link #BLOCK}, {@link #DROP_OLDEST} or {@link #DROP_NEWEST}
+	 */
+	public void setScreenshotEncoding(int numberOfEncoders, int queueCapacity, int overflowPolicy) {
+		screenShotSaver.configure(numberOfEncoders, queueCapacity, overflowPolicy);
+	}
+
+	/**
+	 * Returns the number of screenshots that have been dropped because the queue was full.
+	 * 
+	 * @return the number of dropped screenshots
+	 */
+	public int getDroppedScreenshotCount() {
+		return screenShotSaver.getDroppedCount();
+	}
+
+	/**
+	 * Returns the number of screenshots being taken or waiting to be encoded.
+	 * 
+	 * @return the depth of the screenshot queue
+	 */
+	public int getPendingScreenshotCount() {
+		return screenShotSaver.getQueueDepth();
+	}
+
+	/**
+	 * Returns the number of frames per second achieved by the current or last screenshot sequence.
+	 * 
+	 * @return the achieved frames per second, or 0 if less than two frames have been taken
+	 */
+	public float getScreenshotSequenceFps() {
+		ScreenshotSequence sequence = lastScreenshotSequence;
+		return sequence != null ? sequence.getAchievedFps() : 0;
+	}
+
+	/**
+	 * Returns the number of frames skipped by the current or last screenshot sequence because
+	 * the previous frame was still being taken or its time had already passed.
+	 * 
+	 * @return the number of skipped frames
+	 */
+	public int getSkippedScreenshotFrameCount() {
+		ScreenshotSequence sequence = lastScreenshotSequence;
+		return sequence != null ? sequence.getSkippedFrames() : 0;
+	}
+
 	/**
 	 * Gets the proper view to use for a screenshot.  
 	 */
@@ -182,7 +299,7 @@ class ScreenshotTaker {
 
 
 	/**
-	 * Returns a bitmap of a given WebView.
+	 * Returns a bitmap of a given WebView. The bitmap is taken from the bitmap pool.
 	 *  
 	 * @param webView the webView to save a bitmap from
 	 * @return a bitmap of the given web view
@@ -191,14 +308,14 @@ class ScreenshotTaker {
 
 	private Bitmap getBitmapOfWebView(final WebView webView){
 		Picture picture = webView.capturePicture();
-		Bitmap b = Bitmap.createBitmap( picture.getWidth(), picture.getHeight(), Bitmap.Config.ARGB_8888);
+		Bitmap b = bitmapPool.obtain(picture.getWidth(), picture.getHeight(), Bitmap.Config.ARGB_8888);
 		Canvas c = new Canvas(b);
 		picture.draw(c);
 		return b;
 	}
 
 	/**
-	 * Returns a bitmap of a given View.
+	 * Returns a bitmap of a given View. The drawing cache is drawn into a bitmap taken from the bitmap pool.
 	 * 
 	 * @param view the view to save a bitmap from
 	 * @return a bitmap of the given view
@@ -211,14 +328,16 @@ class ScreenshotTaker {
 		Bitmap orig = view.getDrawingCache();
 		Bitmap.Config config = null;
 
-		if(orig != null) {
-			config = orig.getConfig();
+		if(orig == null) {
+			return null;
 		}
+		config = orig.getConfig();
 
 		if(config == null) {
 			config = Bitmap.Config.ARGB_8888;
 		}
-		Bitmap b = orig.copy(config, false);
+		Bitmap b = bitmapPool.obtain(orig.getWidth(), orig.getHeight(), config);
+		new Canvas(b).drawBitmap(orig, 0, 0, null);
 		view.destroyDrawingCache();
 		return b; 
 	}
@@ -243,69 +362,154 @@ class ScreenshotTaker {
 		return fileName;
 	}
 
-	/**
-	 * This method initializes the aysnc screenshot saving logic
-	 */
-	private void initScreenShotSaver() {
-		if(screenShotSaverThread == null || screenShotSaver == null) {
-			screenShotSaverThread = new HandlerThread("ScreenShotSaver");
-			screenShotSaverThread.start();
-			screenShotSaver = new ScreenShotSaver(screenShotSaverThread);
-		}
-	}
-
 	/** 
-	 * This is the thread which causes a screenshot sequence to happen
-	 * in parallel with testing.
+	 * This is the task which causes a screenshot sequence to happen
+	 * in parallel with testing. It reschedules itself after each frame.
+	 *
+	 * The frames are scheduled at a fixed rate from the start of the sequence, so the time it takes 
+	 * to take a frame does not delay the following frames. A frame is skipped if the previous frame 
+	 * is still being taken on the main thread or if its time has already passed. The frames are at 
+	 * least {@code MIN_FRAME_DELAY} milliseconds apart, so that a sequence without a frame delay 
+	 * does not spin while a frame is being taken.
 	 */
-	private class ScreenshotSequenceThread extends Thread {
+	private class ScreenshotSequence implements Runnable {
 		private int seqno = 0;
 
 		private String name;
 		private int quality;
 		private int frameDelay;
 		private int maxFrames;
-
-		private boolean keepRunning = true;
-
-		public ScreenshotSequenceThread(String _name, int _quality, int _frameDelay, int _maxFrames) {
+		private ScreenshotDeltaEncoder deltaEncoder;
+		private long startTime = -1;
+		private long nextFrameTime;
+		private volatile int skippedFrames = 0;
+		private volatile boolean captureInFlight = false;
+		private int takenFrames = 0;
+		private long firstFrameTime;
+		private long lastFrameTime;
+
+		private volatile boolean keepRunning = true;
+
+		public ScreenshotSequence(String _name, int _quality, int _frameDelay, int _maxFrames, ScreenshotDeltaEncoder _deltaEncoder) {
 			name = _name;
 			quality = _quality; 
-			frameDelay = _frameDelay;
+			frameDelay = Math.max(_frameDelay, MIN_FRAME_DELAY);
 			maxFrames = _maxFrames;
+			deltaEncoder = _deltaEncoder;
 		}
 
 		public void run() {
-			while(seqno < maxFrames) {
-				if(!keepRunning || Thread.interrupted()) break;
-				doScreenshot();
-				seqno++;
-				try {
-					Thread.sleep(frameDelay);
-				} catch (InterruptedException e) {
+			long now = SystemClock.uptimeMillis();
+
+			if(startTime < 0) {
+				startTime = now;
+				nextFrameTime = now;
+			}
+			if(keepRunning && seqno < maxFrames) {
+				if(captureInFlight) {
+					skippedFrames++;
+					Log.d(LOG_TAG, "skipping screenshot, the previous screenshot is still being taken");
+				}
+				else {
+					doScreenshot();
+					seqno++;
 				}
+				nextFrameTime += frameDelay;
+				now = SystemClock.uptimeMillis();
+
+				if(now - nextFrameTime >= frameDelay) {
+					long missedFrames = (now - nextFrameTime) / frameDelay;
+					skippedFrames += missedFrames;
+					nextFrameTime += missedFrames * frameDelay;
+				}
+			}
+			if(keepRunning && seqno < maxFrames) {
+				if(scheduler.schedule(this, Math.max(0, nextFrameTime - now)) != null) {
+					return;
+				}
+				keepRunning = false;
+			}
+			Log.d(LOG_TAG, "screenshot sequence "+name+" took "+takenFrames+" frames at "+getAchievedFps()+" fps, skipped "+skippedFrames+" frames");
+			finishDeltaEncoder();
+
+			if(screenshotSequence == this) {
+				screenshotSequence = null;
+				bitmapPool.clear();
 			}
-			screenshotSequenceThread = null;
 		}
 
 		public void doScreenshot() {
+			String final_name = name+"_"+seqno;
+			if(!screenShotSaver.reserve()) {
+				Log.d(LOG_TAG, "dropping screenshot "+final_name);
+				return;
+			}
 			View v = getScreenshotView();
 			if(v == null) keepRunning = false;
-			String final_name = name+"_"+seqno;
-			ScreenshotRunnable r = new ScreenshotRunnable(v, final_name, quality);
+			ScreenshotRunnable r = deltaEncoder == null ? new ScreenshotRunnable(v, final_name, quality) 
+					: new ScreenshotRunnable(v, final_name, deltaEncoder, deltaEncoder.takeTicket(), seqno);
+			r.setSequence(this);
+			captureInFlight = true;
 			Log.d(LOG_TAG, "taking screenshot "+final_name);
 			activityUtils.getCurrentActivity().runOnUiThread(r);
 		}
 
-		public void interrupt() {
+		public void stop() {
 			keepRunning = false;
-			super.interrupt();
+			finishDeltaEncoder();
+		}
+
+		/**
+		 * Called on the main thread when a frame has been taken, or could not be taken.
+		 *
+		 * @param taken {@code true} if the frame was taken
+		 */
+		public synchronized void onCaptureFinished(boolean taken) {
+			if(taken) {
+				lastFrameTime = SystemClock.uptimeMillis();
+
+				if(takenFrames == 0) {
+					firstFrameTime = lastFrameTime;
+				}
+				takenFrames++;
+			}
+			captureInFlight = false;
+		}
+
+		/**
+		 * Returns the number of frames per second achieved between the first and the last frame taken.
+		 *
+		 * @return the achieved frames per second, or 0 if less than two frames have been taken
+		 */
+		public synchronized float getAchievedFps() {
+			if(takenFrames < 2 || lastFrameTime == firstFrameTime) {
+				return 0;
+			}
+			return (takenFrames - 1) * 1000f / (lastFrameTime - firstFrameTime);
+		}
+
+		/**
+		 * Returns the number of skipped frames.
+		 *
+		 * @return the number of skipped frames
+		 */
+		public int getSkippedFrames() {
+			return skippedFrames;
+		}
+
+		/**
+		 * Lets the delta encoder close the sequence file once the frames already taken have been saved.
+		 */
+		private void finishDeltaEncoder() {
+			if(deltaEncoder != null) {
+				deltaEncoder.finish();
+			}
 		}
 	}
 
 	/**
 	 * Here we have a Runnable which is responsible for taking the actual screenshot,
-	 * and then posting the bitmap to a Handler which will save it.
+	 * and then handing the bitmap to the ScreenShotSaver which will save it.
 	 *
 	 * This Runnable is run on the UI thread.
 	 */
@@ -314,6 +518,10 @@ class ScreenshotTaker {
 		private View view;
 		private String name;
 		private int quality;
+		private ScreenshotDeltaEncoder deltaEncoder;
+		private int ticket;
+		private int frameNumber;
+		private ScreenshotSequence sequence;
 
 		public ScreenshotRunnable(final View _view, final String _name, final int _quality) {
 			view = _view;
@@ -321,26 +529,73 @@ class ScreenshotTaker {
 			quality = _quality;
 		}
 
+		public ScreenshotRunnable(final View _view, final String _name, final ScreenshotDeltaEncoder _deltaEncoder, final int _ticket, final int _frameNumber) {
+			view = _view;
+			name = _name;
+			deltaEncoder = _deltaEncoder;
+			ticket = _ticket;
+			frameNumber = _frameNumber;
+		}
+
+		public void setSequence(ScreenshotSequence _sequence) {
+			sequence = _sequence;
+		}
+
 		public void run() {
+			boolean taken = false;
+			try {
+				taken = takeScreenshot();
+			} finally {
+				if(sequence != null) {
+					sequence.onCaptureFinished(taken);
+				}
+			}
+		}
+
+		private boolean takeScreenshot() {
 			if(view !=null){
-				Bitmap  b;
+				Bitmap  b = null;
+				boolean captured = false;
 
-				if(view instanceof WebView){
-					b = getBitmapOfWebView((WebView) view);
+				try {
+					if(view instanceof WebView){
+						b = getBitmapOfWebView((WebView) view);
+					}
+					else{
+						b = getBitmapOfView(view);
+					}
+					captured = true;
+				} finally {
+					if(!captured) {
+						cancel();
+					}
 				}
-				else{
-					b = getBitmapOfView(view);
+				if(b != null) {
+					screenShotSaver.saveBitmap(new PendingScreenshot(b, name, quality, deltaEncoder, ticket, frameNumber));
+					return true;
 				}
-				if(b != null)
-					screenShotSaver.saveBitmap(b, name, quality);
-				else 
+				else {
 					Log.d(LOG_TAG, "NULL BITMAP!!");
+					cancel();
+				}
+			}
+			else{
+				cancel();
+			}
+			return false;
+		}
+
+		private void cancel() {
+			screenShotSaver.cancel();
+
+			if(deltaEncoder != null) {
+				deltaEncoder.skip(ticket);
 			}
 		}
 	}
 
 	/**
-	 * This class is a Handler which deals with saving the screenshots on a separate thread.
+	 * This class deals with saving the screenshots on a separate thread.
 	 *
 	 * The screenshot logic by necessity has to run on the ui thread.  However, in practice
 	 * it seems that saving a screenshot (with quality 100) takes approx twice as long
@@ -349,42 +604,209 @@ class ScreenshotTaker {
 	 * Saving the screenshots in a separate thread like this will thus make the screenshot
 	 * process approx 3x faster as far as the main thread is concerned.
 	 *
+	 * The queue of screenshots is bounded. A slot is reserved before a screenshot is taken, 
+	 * so that the overflow policy is applied before any work is done on the main thread. 
+	 * The queued screenshots are encoded by at most {@code numberOfEncoders} tasks on the scheduler.
+	 *
 	 */
-	private class ScreenShotSaver extends Handler {
-		public ScreenShotSaver(HandlerThread thread) {
-			super(thread.getLooper());
+	private class ScreenShotSaver {
+
+		private final LinkedList<PendingScreenshot> pendingScreenshots = new LinkedList<PendingScreenshot>();
+		private int numberOfEncoders = DEFAULT_ENCODERS;
+		private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+		private int overflowPolicy = BLOCK;
+		private int reservedSlots = 0;
+		private int runningEncoders = 0;
+		private int droppedCount = 0;
+
+		/**
+		 * Sets the number of encoders, the capacity of the queue and the overflow policy.
+		 *
+		 * @param numberOfEncoders the maximum number of screenshots encoded at the same time, from 1 to {@link #MAX_ENCODERS}
+		 * @param queueCapacity the maximum number of screenshots waiting to be encoded
+		 * @param overflowPolicy {@link #BLOCK}, {@link #DROP_OLDEST} or {@link #DROP_NEWEST}
+		 */
+		public synchronized void configure(int numberOfEncoders, int queueCapacity, int overflowPolicy) {
+			if(numberOfEncoders < 1 || queueCapacity < 1) {
+				throw new IllegalArgumentException("numberOfEncoders and queueCapacity must be at least 1");
+			}
+			if(numberOfEncoders > MAX_ENCODERS) {
+				throw new IllegalArgumentException("numberOfEncoders must be at most " + MAX_ENCODERS);
+			}
+			if(overflowPolicy != BLOCK && overflowPolicy != DROP_OLDEST && overflowPolicy != DROP_NEWEST) {
+				throw new IllegalArgumentException("Unknown overflow policy: " + overflowPolicy);
+			}
+			this.numberOfEncoders = numberOfEncoders;
+			this.queueCapacity = queueCapacity;
+			this.overflowPolicy = overflowPolicy;
+			startEncoders();
+			notifyAll();
 		}
 
 		/**
-		 * This method posts a Bitmap with meta-data to the Handler queue.
+		 * Reserves a slot in the queue for a screenshot that is about to be taken. Waits for a free 
+		 * slot if the overflow policy is {@link #BLOCK}.
 		 *
-		 * @param bitmap the bitmap to save
-		 * @param name the name of the file
-		 * @param quality the compression rate. From 0 (compress for lowest size) to 100 (compress for maximum quality).
+		 * @return {@code true} if the screenshot should be taken and {@code false} if it is dropped
 		 */
-		public void saveBitmap(Bitmap bitmap, String name, int quality) {
-			Message message = this.obtainMessage();
-			message.arg1 = quality;
-			message.obj = bitmap;
-			message.getData().putString("name", name);
-			this.sendMessage(message);
+		public synchronized boolean reserve() {
+			while(overflowPolicy == BLOCK && isFull()) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+			if(overflowPolicy == DROP_NEWEST && isFull()) {
+				droppedCount++;
+				return false;
+			}
+			reservedSlots++;
+			return true;
+		}
+
+		/**
+		 * Releases a reserved slot of a screenshot that could not be taken.
+		 */
+		public synchronized void cancel() {
+			reservedSlots--;
+			notifyAll();
 		}
 
 		/**
-		 * Here we process the Handler queue and save the bitmaps.
+		 * This method queues a Bitmap with meta-data in its reserved slot to be saved. With the 
+		 * {@link #DROP_OLDEST} policy the oldest queued Bitmap is dropped if the queue is full.
 		 *
-		 * @param message A Message containing the bitmap to save, and some metadata.
+		 * @param screenshot the bitmap to save and its meta-data
 		 */
-		public void handleMessage(Message message) {
-			String name = message.getData().getString("name");
-			int quality = message.arg1;
-			Bitmap b = (Bitmap)message.obj;
-			if(b != null) {
-				saveFile(name, b, quality);
-				b.recycle();
+		public void saveBitmap(PendingScreenshot screenshot) {
+			PendingScreenshot droppedScreenshot = null;
+
+			synchronized (this) {
+				reservedSlots--;
+
+				if(pendingScreenshots.size() >= queueCapacity) {
+					droppedScreenshot = pendingScreenshots.removeFirst();
+					droppedCount++;
+				}
+				pendingScreenshots.addLast(screenshot);
+				startEncoders();
 			}
-			else {
-				Log.d(LOG_TAG, "NULL BITMAP!!");
+			if(droppedScreenshot != null) {
+				Log.d(LOG_TAG, "dropping screenshot "+droppedScreenshot.name);
+				if(droppedScreenshot.deltaEncoder != null) {
+					droppedScreenshot.deltaEncoder.skip(droppedScreenshot.ticket);
+				}
+				releaseBitmap(droppedScreenshot.bitmap);
+			}
+		}
+
+		/**
+		 * Returns the number of dropped screenshots.
+		 *
+		 * @return the number of dropped screenshots
+		 */
+		public synchronized int getDroppedCount() {
+			return droppedCount;
+		}
+
+		/**
+		 * Returns the number of screenshots being taken or waiting to be encoded.
+		 *
+		 * @return the depth of the queue
+		 */
+		public synchronized int getQueueDepth() {
+			return pendingScreenshots.size() + reservedSlots;
+		}
+
+		/**
+		 * Checks if all slots of the queue are queued or reserved.
+		 *
+		 * @return {@code true} if the queue is full
+		 */
+		private boolean isFull() {
+			return pendingScreenshots.size() + reservedSlots >= queueCapacity;
+		}
+
+		/**
+		 * Starts encoders until there is one per queued screenshot or the number of encoders is reached.
+		 * The queued screenshots are dropped if the scheduler has been released and no encoder is running.
+		 * Must be called while holding the lock of this object.
+		 */
+		private void startEncoders() {
+			while(runningEncoders < numberOfEncoders && runningEncoders < pendingScreenshots.size()) {
+				runningEncoders++;
+				Future<?> encoder = scheduler.execute(new Runnable() {
+					public void run() {
+						encode();
+					}
+				});
+
+				if(encoder == null) {
+					runningEncoders--;
+
+					if(runningEncoders == 0) {
+						dropPendingScreenshots();
+					}
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Drops all queued screenshots. Must be called while holding the lock of this object.
+		 */
+		private void dropPendingScreenshots() {
+			while(!pendingScreenshots.isEmpty()) {
+				PendingScreenshot droppedScreenshot = pendingScreenshots.removeFirst();
+				droppedCount++;
+				Log.d(LOG_TAG, "dropping screenshot "+droppedScreenshot.name);
+
+				if(droppedScreenshot.deltaEncoder != null) {
+					droppedScreenshot.deltaEncoder.skip(droppedScreenshot.ticket);
+				}
+				releaseBitmap(droppedScreenshot.bitmap);
+			}
+			notifyAll();
+		}
+
+		/**
+		 * Saves queued screenshots until the queue is empty.
+		 */
+		private void encode() {
+			while(true) {
+				PendingScreenshot pendingScreenshot;
+
+				synchronized (this) {
+					if(pendingScreenshots.isEmpty()) {
+						runningEncoders--;
+						return;
+					}
+					pendingScreenshot = pendingScreenshots.removeFirst();
+					notifyAll();
+				}
+				if(pendingScreenshot.deltaEncoder != null) {
+					pendingScreenshot.deltaEncoder.encodeFrame(pendingScreenshot.ticket, pendingScreenshot.frameNumber, pendingScreenshot.time, pendingScreenshot.bitmap);
+				}
+				else {
+					saveFile(pendingScreenshot.name, pendingScreenshot.bitmap, pendingScreenshot.quality);
+				}
+				releaseBitmap(pendingScreenshot.bitmap);
+			}
+		}
+
+		/**
+		 * Returns a saved or dropped bitmap to the bitmap pool if a screenshot sequence is running.
+		 *
+		 * @param bitmap the bitmap that is no longer used
+		 */
+		private void releaseBitmap(Bitmap bitmap) {
+			if(screenshotSequence != null){
+				bitmapPool.release(bitmap);
+			}
+			else{
+				bitmap.recycle();
 			}
 		}
 
@@ -416,4 +838,27 @@ class ScreenshotTaker {
 			}
 		}
 	}
+
+	/**
+	 * A screenshot waiting to be saved, either as a file of its own or as a frame of a delta encoded sequence.
+	 */
+	private static class PendingScreenshot {
+		final Bitmap bitmap;
+		final String name;
+		final int quality;
+		final ScreenshotDeltaEncoder deltaEncoder;
+		final int ticket;
+		final int frameNumber;
+		final long time;
+
+		PendingScreenshot(Bitmap bitmap, String name, int quality, ScreenshotDeltaEncoder deltaEncoder, int ticket, int frameNumber) {
+			this.bitmap = bitmap;
+			this.name = name;
+			this.quality = quality;
+			this.deltaEncoder = deltaEncoder;
+			this.ticket = ticket;
+			this.frameNumber = frameNumber;
+			this.time = SystemClock.uptimeMillis();
+		}
+	}
 }
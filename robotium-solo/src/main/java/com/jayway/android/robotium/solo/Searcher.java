@@ -6,6 +6,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import android.util.Log;
 import android.view.View;
 import android.widget.TextView;
@@ -26,8 +28,13 @@ class Searcher {
 	private final Scroller scroller;
 	private final String LOG_TAG = "Robotium";
 	Set<TextView> uniqueTextViews;
+	Set<TextMatch> uniqueTextMatches;
 	List<WebElement> webElements;
+	private final Set<WebElementKey> webElementKeys;
+	private final WebElementKey probeKey;
+	private final WebQuerySource webElementSource;
 	private int numberOfUniqueViews;
+	private volatile boolean webTextSearchEnabled = true;
 	
 	
 	/**
@@ -43,7 +50,11 @@ class Searcher {
 		this.webUtils = webUtils;
 		this.scroller = scroller;
 		webElements = new ArrayList<WebElement>();
+		webElementKeys = new HashSet<WebElementKey>();
+		probeKey = new WebElementKey();
+		webElementSource = new WebQuerySource();
 		uniqueTextViews = new HashSet<TextView>();
+		uniqueTextMatches = new HashSet<TextMatch>();
 	}
 
 
@@ -63,28 +74,43 @@ class Searcher {
 	 */
 
 	public <T extends TextView> T searchFor(final Class<T> viewClass, final String regex, int expectedMinimumNumberOfMatches, final boolean scroll, final boolean onlyVisible) {
+		return searchFor(viewClass, regex, expectedMinimumNumberOfMatches, scroll, onlyVisible, webTextSearchEnabled);
+	}
+
+	/**
+	 * Searches for a {@code View} with the given regex string and returns {@code true} if the
+	 * searched {@code View} is found a given number of times.
+	 *
+	 * @param viewClass what kind of {@code View} to search for, e.g. {@code Button.class} or {@code TextView.class}
+	 * @param regex the text to search for. The parameter <strong>will</strong> be interpreted as a regular expression.
+	 * @param expectedMinimumNumberOfMatches the minimum number of matches expected to be found. {@code 0} matches means that one or more
+	 * matches are expected to be found.
+	 * @param scroll whether scrolling should be performed
+	 * @param onlyVisible {@code true} if only texts visible on the screen should be searched
+	 * @param searchWebTexts {@code true} if texts shown in WebViews should be searched when {@code viewClass} is {@code TextView}
+	 * 
+	 * @return {@code true} if a view of the specified class with the given text is found a given number of times.
+	 * {@code false} if it is not found.
+	 */
+
+	public <T extends TextView> T searchFor(final Class<T> viewClass, final String regex, int expectedMinimumNumberOfMatches, final boolean scroll, final boolean onlyVisible, boolean searchWebTexts) {
 		if(expectedMinimumNumberOfMatches < 1) {
 			expectedMinimumNumberOfMatches = 1;
 		}
 
 		final Callable<Collection<T>> viewFetcherCallback = new Callable<Collection<T>>() {
-			@SuppressWarnings("unchecked")
 			public Collection<T> call() throws Exception {
 				ArrayList<T> viewsToReturn = viewFetcher.getCurrentViews(viewClass);
 
 				if(onlyVisible){
 					viewsToReturn = RobotiumUtils.removeInvisibleViews(viewsToReturn);
 				}
-		
-				if(viewClass.isAssignableFrom(TextView.class)) {
-					viewsToReturn.addAll((Collection<? extends T>) webUtils.getTextViewsFromWebView());
-				}
 				return viewsToReturn;
 			}
 		};
 
 		try {
-			return searchFor(viewFetcherCallback, regex, expectedMinimumNumberOfMatches, scroll);
+			return searchFor(viewFetcherCallback, regex, expectedMinimumNumberOfMatches, scroll, searchWebTexts && viewClass.isAssignableFrom(TextView.class));
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
@@ -150,18 +176,60 @@ class Searcher {
 	 */
 
 	public <T extends TextView> T searchFor(Callable<Collection<T>> viewFetcherCallback, String regex, int expectedMinimumNumberOfMatches, boolean scroll) throws Exception {
+		return searchFor(viewFetcherCallback, regex, expectedMinimumNumberOfMatches, scroll, false);
+	}
+
+	/**
+	 * Searches for a {@code View} with the given regex string and returns {@code true} if the
+	 * searched {@code View} is found a given number of times. Texts shown in WebViews are matched as 
+	 * {@code TextMatch} objects and a {@code TextView} is only created for the text that is returned. 
+	 * The texts are only fetched again when a WebView is shown and its page has changed since the last poll.
+	 *
+	 * @param viewFetcherCallback callback which should return an updated collection of views to search
+	 * @param regex the text to search for. The parameter <strong>will</strong> be interpreted as a regular expression.
+	 * @param expectedMinimumNumberOfMatches the minimum number of matches expected to be found. {@code 0} matches means that one or more
+	 * matches are expected to be found.
+	 * @param scroll whether scrolling should be performed
+	 * @param searchWebTexts {@code true} if texts shown in WebViews should be searched. Only allowed if {@code T} is {@code TextView}
+	 * 
+	 * @return {@code true} if a view of the specified class with the given text is found a given number of times.
+	 * {@code false} if it is not found.
+	 *
+	 * @throws Exception not really, it's just the signature of {@code Callable}
+	 */
+
+	@SuppressWarnings("unchecked")
+	private <T extends TextView> T searchFor(Callable<Collection<T>> viewFetcherCallback, String regex, int expectedMinimumNumberOfMatches, boolean scroll, boolean searchWebTexts) throws Exception {
 	
 		Collection<T> views;
+		Pattern pattern = null;
 
 		while (true) {
 			views = viewFetcherCallback.call();
 
 			for(T view : views){
-				if (RobotiumUtils.getNumberOfMatches(regex, view, uniqueTextViews) == expectedMinimumNumberOfMatches) {
+				if (RobotiumUtils.getNumberOfMatches(regex, view, uniqueTextViews) + uniqueTextMatches.size() == expectedMinimumNumberOfMatches) {
 					uniqueTextViews.clear();
+					uniqueTextMatches.clear();
 					return view;
 				}
 			}
+
+			if(searchWebTexts){
+				if(pattern == null){
+					pattern = getPattern(regex);
+				}
+				for(TextMatch textMatch : webUtils.getTextMatchesFromWebView()){
+					if(textMatch.matches(pattern)){
+						uniqueTextMatches.add(textMatch);
+					}
+					if(uniqueTextViews.size() + uniqueTextMatches.size() == expectedMinimumNumberOfMatches){
+						uniqueTextViews.clear();
+						uniqueTextMatches.clear();
+						return (T) webUtils.createTextView(textMatch);
+					}
+				}
+			}
 			if(scroll && !scroller.scroll(Scroller.DOWN)){
 				logMatchesFound(regex);
 				return null; 
@@ -174,7 +242,19 @@ class Searcher {
 	}
 
 	/**
-	 * Searches for a web element.
+	 * Sets whether texts shown in WebViews should be searched by default when searching for texts.
+	 * 
+	 * @param enabled {@code true} if texts shown in WebViews should be searched
+	 */
+
+	public void setWebTextSearchEnabled(boolean enabled){
+		webTextSearchEnabled = enabled;
+	}
+
+	/**
+	 * Searches for a web element. The unique matches and their index are kept across searches and are only 
+	 * built anew when the results of the query change, i.e. for another By object, another DOM version 
+	 * or other WebViews. Searches in an unchanged page therefore do not create any web elements.
 	 * 
 	 * @param by the By object e.g. By.id("id");
 	 * @param minimumNumberOfMatches the minimum number of matches that are expected to be shown. {@code 0} means any number of matches
@@ -188,37 +268,32 @@ class Searcher {
 			minimumNumberOfMatches = 1;
 		}
 
-		List<WebElement> viewsFromScreen = webUtils.getCurrentWebElements(by);
-		addViewsToList (webElements, viewsFromScreen);
+		List<WebElement> viewsFromScreen = webUtils.getCurrentWebElements(by, webElementSource);
 
+		if(viewsFromScreen != null){
+			webElements.clear();
+			webElementKeys.clear();
+			addViewsToList (webElements, viewsFromScreen);
+		}
 		return getViewFromList(webElements, minimumNumberOfMatches);
 	}
 
 	/**
-	 * Adds views to a given list.
+	 * Adds views to a given list. Views with the same text and location as a view already in the list 
+	 * are left out, which is looked up in {@code webElementKeys}. A reused probe key is used for the lookup 
+	 * so that a key is only created for the views that are added.
 	 * 
-	 * @param allWebElements the list of all views
+	 * @param allWebElements the list of all views, whose keys are in {@code webElementKeys}
 	 * @param webTextViewsOnScreen the list of views shown on screen
 	 */
 
 	private void addViewsToList(List<WebElement> allWebElements, List<WebElement> webElementsOnScreen){
 
-		int[] xyViewFromSet = new int[2];
-		int[] xyViewFromScreen = new int[2];
-
 		for(WebElement textFromScreen : webElementsOnScreen){
-			boolean foundView = false;
-			textFromScreen.getLocationOnScreen(xyViewFromScreen);
+			probeKey.set(textFromScreen.getText(), textFromScreen.getLocationX(), textFromScreen.getLocationY());
 
-			for(WebElement textFromList : allWebElements){
-				textFromList.getLocationOnScreen(xyViewFromSet);
-
-				if(textFromScreen.getText().equals(textFromList.getText()) && xyViewFromScreen[0] == xyViewFromSet[0] && xyViewFromScreen[1] == xyViewFromSet[1]) {
-					foundView = true;
-				}
-			}
-
-			if(!foundView){
+			if(!webElementKeys.contains(probeKey)){
+				webElementKeys.add(new WebElementKey().set(textFromScreen.getText(), textFromScreen.getLocationX(), textFromScreen.getLocationY()));
 				allWebElements.add(textFromScreen);
 			}
 		}
@@ -243,8 +318,6 @@ class Searcher {
 				webElementToReturn = webElements.get(--match);
 			}catch(Exception ignored){}
 		}
-		if(webElementToReturn != null)
-			webElements.clear();
 
 		return webElementToReturn;
 	}
@@ -282,13 +355,62 @@ class Searcher {
 	 */
 
 	public void logMatchesFound(String regex){
-		if (uniqueTextViews.size() > 0) {
-			Log.d(LOG_TAG, " There are only " + uniqueTextViews.size() + " matches of '" + regex + "'");
+		if (uniqueTextViews.size() + uniqueTextMatches.size() > 0) {
+			Log.d(LOG_TAG, " There are only " + (uniqueTextViews.size() + uniqueTextMatches.size()) + " matches of '" + regex + "'");
 		}
 		else if(webElements.size() > 0){
 			Log.d(LOG_TAG, " There are only " + webElements.size() + " matches of '" + regex + "'");
 		}
 		uniqueTextViews.clear();
+		uniqueTextMatches.clear();
 		webElements.clear();
+		webElementKeys.clear();
+		webElementSource.clear();
+	}
+
+	/**
+	 * Compiles the given regex. A regex that is not valid is matched literally.
+	 * 
+	 * @param regex the regex to compile
+	 * @return the compiled {@code Pattern}
+	 */
+
+	private Pattern getPattern(String regex){
+		try{
+			return Pattern.compile(regex);
+		}catch(PatternSyntaxException e){
+			return Pattern.compile(regex, Pattern.LITERAL);
+		}
+	}
+
+	/**
+	 * The text and location of a web element, used as key when looking for duplicates.
+	 */
+
+	private static class WebElementKey {
+		private String text;
+		private int locationX;
+		private int locationY;
+
+		WebElementKey set(String text, int locationX, int locationY) {
+			this.text = text;
+			this.locationX = locationX;
+			this.locationY = locationY;
+			return this;
+		}
+
+		@Override
+		public boolean equals(Object object) {
+			if(!(object instanceof WebElementKey)){
+				return false;
+			}
+			WebElementKey key = (WebElementKey) object;
+			return locationX == key.locationX && locationY == key.locationY && (text == null ? key.text == null : text.equals(key.text));
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * (31 * (text != null ? text.hashCode() : 0) + locationX) + locationY;
+		}
 	}
 }
@@ -2,11 +2,13 @@ package com.jayway.android.robotium.solo;
 
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Map;
 import junit.framework.Assert;
 import android.app.Activity;
 import android.app.Instrumentation;
 import android.content.pm.ActivityInfo;
 import android.graphics.PointF;
+import android.os.SystemClock;
 import android.view.KeyEvent;
 import android.view.View;
 import android.webkit.WebView;
@@ -67,6 +69,7 @@ public class Solo {
 	protected final ScreenshotTaker screenshotTaker;
 	protected final Instrumentation instrumentation;
 	protected final Zoomer zoomer;
+	protected final Scheduler scheduler;
 	protected String webUrl = null;
 	public final static int LANDSCAPE = ActivityInfo.SCREEN_ORIENTATION_LANDSCAPE;   // 0
 	public final static int PORTRAIT = ActivityInfo.SCREEN_ORIENTATION_PORTRAIT;     // 1
@@ -79,6 +82,9 @@ public class Solo {
 	public final static int DELETE = KeyEvent.KEYCODE_DEL;
 	public final static int CLOSED = 0;
 	public final static int OPENED = 1;
+	public final static int SCREENSHOT_BLOCK = ScreenshotTaker.BLOCK;
+	public final static int SCREENSHOT_DROP_OLDEST = ScreenshotTaker.DROP_OLDEST;
+	public final static int SCREENSHOT_DROP_NEWEST = ScreenshotTaker.DROP_NEWEST;
 
 
 
@@ -94,12 +100,13 @@ public class Solo {
 	public Solo(Instrumentation instrumentation, Activity activity) {
 		this.instrumentation = instrumentation;
 		this.sleeper = new Sleeper();
+		this.scheduler = new Scheduler();
 		this.sender = new Sender(instrumentation, sleeper);
-		this.activityUtils = new ActivityUtils(instrumentation, activity, sleeper);
+		this.activityUtils = new ActivityUtils(instrumentation, activity, scheduler);
 		this.viewFetcher = new ViewFetcher(activityUtils);
-		this.screenshotTaker = new ScreenshotTaker(activityUtils, viewFetcher, sleeper);
+		this.screenshotTaker = new ScreenshotTaker(activityUtils, viewFetcher, sleeper, scheduler);
 		this.dialogUtils = new DialogUtils(activityUtils, viewFetcher, sleeper);
-		this.webUtils = new WebUtils(instrumentation,activityUtils,viewFetcher, sleeper);
+		this.webUtils = new WebUtils(instrumentation,activityUtils,viewFetcher);
 		this.scroller = new Scroller(instrumentation, activityUtils, viewFetcher, sleeper);
 		this.searcher = new Searcher(viewFetcher, webUtils, scroller);
 		this.waiter = new Waiter(activityUtils, viewFetcher, searcher,scroller, sleeper);
@@ -366,6 +373,36 @@ public class Solo {
 		return searcher.searchFor(TextView.class, text, minimumNumberOfMatches, scroll, onlyVisible) != null;
 	}
 
+	/**
+	 * Searches for the specified text and returns {@code true} if the searched text is found a specified
+	 * number of times.
+	 *
+	 * @param text the text to search for. The parameter will be interpreted as a regular expression.
+	 * @param minimumNumberOfMatches the minimum number of matches expected to be found. {@code 0} matches means that one or more
+	 * matches are expected to be found
+	 * @param scroll {@code true} if scrolling should be performed
+	 * @param onlyVisible {@code true} if only texts visible on the screen should be searched
+	 * @param searchWebTexts {@code true} if texts shown in WebViews should be searched as well
+	 * @return {@code true} if text is found a specified number of times and {@code false} if the text
+	 * is not found
+	 *
+	 */
+
+	public boolean searchText(String text, int minimumNumberOfMatches, boolean scroll, boolean onlyVisible, boolean searchWebTexts) {
+		return searcher.searchFor(TextView.class, text, minimumNumberOfMatches, scroll, onlyVisible, searchWebTexts) != null;
+	}
+
+	/**
+	 * Sets whether texts shown in WebViews should be searched by the text search methods, e.g. {@link #searchText(String)}.
+	 * Disabling it avoids querying WebViews when only native views are of interest. Enabled by default.
+	 *
+	 * @param enabled {@code true} if texts shown in WebViews should be searched
+	 */
+
+	public void setWebTextSearchEnabled(boolean enabled) {
+		searcher.setWebTextSearchEnabled(enabled);
+	}
+
 	/**
 	 * Sets the Orientation (Landscape/Portrait) for the current Activity.
 	 * 
@@ -390,6 +427,56 @@ public class Solo {
 		return activityUtils.getCurrentActivity();
 	}
 	
+	/**
+	 * Waits for an Activity matching the specified class. Default timeout is 20 seconds.
+	 *
+	 * @param activityClass the class of the {@code Activity} to wait for. Example is: {@code MyActivity.class}
+	 * @return {@code true} if {@code Activity} appears before the timeout and {@code false} if it does not
+	 *
+	 */
+
+	public boolean waitForActivity(Class<? extends Activity> activityClass){
+		return activityUtils.waitForActivity(activityClass, Timeout.getLargeTimeout());
+	}
+
+	/**
+	 * Waits for an Activity matching the specified class.
+	 *
+	 * @param activityClass the class of the {@code Activity} to wait for. Example is: {@code MyActivity.class}
+	 * @param timeout the amount of time in milliseconds to wait
+	 * @return {@code true} if {@code Activity} appears before the timeout and {@code false} if it does not
+	 *
+	 */
+
+	public boolean waitForActivity(Class<? extends Activity> activityClass, int timeout){
+		return activityUtils.waitForActivity(activityClass, timeout);
+	}
+
+	/**
+	 * Waits for all opened Activities matching the specified class to be finished.
+	 *
+	 * @param activityClass the class of the {@code Activity} to wait for. Example is: {@code MyActivity.class}
+	 * @param timeout the amount of time in milliseconds to wait
+	 * @return {@code true} if the {@code Activity} is finished before the timeout and {@code false} if it is not
+	 *
+	 */
+
+	public boolean waitForActivityFinished(Class<? extends Activity> activityClass, int timeout){
+		return activityUtils.waitForActivityFinished(activityClass, timeout);
+	}
+
+	/**
+	 * Returns the duration of the last Activity transition, measured from the click that started it
+	 * until the new Activity was resumed.
+	 *
+	 * @return the transition time in milliseconds or {@code -1} if no transition has been measured
+	 *
+	 */
+
+	public long getActivityTransitionTime(){
+		return activityUtils.getTransitionTime();
+	}
+
 	/**
 	 * Asserts that the Activity matching the specified name is active.
 	 * 
@@ -1361,6 +1448,30 @@ public class Solo {
 		}
 		webUtils.enterTextIntoWebElement(by, text);
 	}
+
+	/**
+	 * Enters texts in the WebElements matching the specified By objects. All texts are entered at once, 
+	 * dispatching input and change events to the WebElements, which is faster than one call per WebElement. 
+	 * The WebElements do not need to be scrolled into view. Texts whose WebElements are not found are 
+	 * entered again until they are found or the timeout of 10 seconds has passed.
+	 * 
+	 * @param values the texts to enter by the By objects of the {@link WebElement} fields. Examples of By objects are: {@code By.id("id")} and {@code By.name("name")}
+	 * 
+	 */
+
+	public void fillWebForm(Map<By, String> values){
+		final long endTime = SystemClock.uptimeMillis() + Timeout.getSmallTimeout();
+		Map<By, String> notFilled = webUtils.fillWebForm(values);
+
+		while(!notFilled.isEmpty()){
+			if(SystemClock.uptimeMillis() > endTime){
+				By by = notFilled.keySet().iterator().next();
+				Assert.assertTrue("WebElement with " + webUtils.splitNameByUpperCase(by.getClass().getSimpleName()) + ": '" + by.getValue() + "' is not found!", false);
+			}
+			sleeper.sleep();
+			notFilled = webUtils.fillWebForm(notFilled);
+		}
+	}
 	
 	/**
 	 * Types text in an EditText matching the specified index.
@@ -1690,6 +1801,30 @@ public class Solo {
 		return waiter.getView(index, viewClass);
 	}
 	
+	/**
+	 * Waits for a WebElement matching the specified By object to be shown. Default timeout is 20 seconds. 
+	 * 
+	 * @param by the By object. Examples are: {@code By.id("id")} and {@code By.name("name")}
+	 * @return {@code true} if a {@link WebElement} is shown and {@code false} if it is not shown before the timeout
+	 */
+
+	public boolean waitForWebElement(By by){
+		return webUtils.waitForWebElement(by, Timeout.getLargeTimeout());
+	}
+
+	/**
+	 * Waits for a WebElement matching the specified By object to be shown. The page reports back 
+	 * as soon as a matching {@link WebElement} is shown.
+	 * 
+	 * @param by the By object. Examples are: {@code By.id("id")} and {@code By.name("name")}
+	 * @param timeout the amount of time in milliseconds to wait
+	 * @return {@code true} if a {@link WebElement} is shown and {@code false} if it is not shown before the timeout
+	 */
+
+	public boolean waitForWebElement(By by, int timeout){
+		return webUtils.waitForWebElement(by, timeout);
+	}
+
 	/**
 	 * Returns a WebElement matching the specified By object and index.
 	 * 
@@ -1791,6 +1926,19 @@ public class Solo {
 	public ArrayList<WebElement> getCurrentWebElements(By by){
 		return webUtils.getCurrentWebElements(by);
 	}
+
+	/**
+	 * Returns the WebElements displayed in the WebViews for each of the specified By objects. 
+	 * All By objects are evaluated at once, which is faster than one call per By object. 
+	 * Compound By objects such as {@code By.and(By.tagName("input"), By.name("email"))} are evaluated in the page.
+	 * 
+	 * @param selectors the By objects. Examples are: {@code By.id("id")} and {@code By.name("name")}
+	 * @return an {@code ArrayList} with one {@code ArrayList} of the {@link WebElement} objects currently displayed per By object, in the same order
+	 */
+	
+	public ArrayList<ArrayList<WebElement>> getWebElements(By... selectors){
+		return webUtils.getWebElements(selectors);
+	}
 		
 	/**
 	 * Checks if a RadioButton matching the specified index is checked.
@@ -1946,6 +2094,19 @@ public class Solo {
 	public void goBackToActivity(String name) {
 		activityUtils.goBackToActivity(name);
 	}
+
+	/**
+	 * Returns to an Activity matching the specified name, either by pressing back or by
+	 * finishing the Activities opened on top of it.
+	 *
+	 * @param name the name of the {@link Activity} to return to. Example is: {@code "MyActivity"}
+	 * @param finishActivities {@code true} if the Activities opened on top of it should be finished instead of pressing back
+	 *
+	 */
+
+	public void goBackToActivity(String name, boolean finishActivities) {
+		activityUtils.goBackToActivity(name, finishActivities);
+	}
 	
 	/**
 	 * Clears the log.
@@ -2005,14 +2166,59 @@ public class Solo {
 	
 	public void finalize() throws Throwable {
 		activityUtils.finalize();
+		scheduler.release();
 	}
     
 	/**
 	 * The Activities that are alive are finished. Usually used in tearDown().
+	 * Any screenshot sequence is stopped and the background threads used by Robotium
+	 * are released once the pending screenshots have been saved. They are started again
+	 * if this Solo is used after this call, e.g. to take a screenshot.
 	 *
 	 */
 	public void finishOpenedActivities(){
 		activityUtils.finishOpenedActivities();
+		screenshotTaker.stopScreenshotSequence();
+		scheduler.releaseUntilNextUse();
+	}
+
+	/**
+	 * Returns the number of background threads currently used by Robotium. The threads are shared 
+	 * by all Solo objects and stopped when the last Solo object has been finished.
+	 *
+	 * @return the number of background threads
+	 */
+	public int getBackgroundThreadCount(){
+		return Scheduler.getThreadCount();
+	}
+
+	/**
+	 * Returns the number of background threads used by Robotium that are currently running a task, 
+	 * e.g. saving a screenshot.
+	 *
+	 * @return the number of busy background threads
+	 */
+	public int getActiveBackgroundThreadCount(){
+		return Scheduler.getActiveThreadCount();
+	}
+
+	/**
+	 * Returns the total number of background threads that Robotium has started in this process.
+	 *
+	 * @return the number of background threads started so far
+	 */
+	public int getCreatedBackgroundThreadCount(){
+		return Scheduler.getCreatedThreadCount();
+	}
+
+	/**
+	 * Returns the number of Solo objects that currently hold the background threads of Robotium. 
+	 * A Solo object holds them from its first background task until {@link #finishOpenedActivities()}.
+	 *
+	 * @return the number of Solo objects holding the background threads
+	 */
+	public int getBackgroundThreadReferenceCount(){
+		return Scheduler.getReferenceCount();
 	}
 	
 	/**
@@ -2098,6 +2304,31 @@ public class Solo {
 		screenshotTaker.startScreenshotSequence(name, quality, frameDelay, maxFrames);
 	}
 
+	/**
+	 * Takes a delta encoded screenshot sequence and saves it as "/sdcard/Robotium-Screenshots/name.rsq".
+	 * Only the parts of a frame that have changed since the previous frame are saved, except in keyframes
+	 * which are saved completely. After pulling the file from the device, the frames can be rebuilt as
+	 * PNG images on any JVM with {@link ScreenshotSequenceDecoder}. The frames are saved without loss, 
+	 * so the file is much smaller than a JPEG sequence while little of the screen changes, but only 
+	 * a few times smaller while most of it changes, e.g. during a scroll.
+	 *
+	 * Requires write permission (android.permission.WRITE_EXTERNAL_STORAGE) in the
+	 * AndroidManifest.xml of the application under test.
+	 *
+	 * At present multiple simultaneous screenshot sequences are not supported.
+	 * This method will throw an exception if stopScreenshotSequence() has not been
+	 * called to finish any prior sequences.
+	 *
+	 * @param name the name to give the sequence file
+	 * @param frameDelay the time in milliseconds to wait between each frame
+	 * @param maxFrames the maximum number of frames that will comprise this sequence
+	 * @param keyframeInterval the number of frames between keyframes
+	 *
+	 */
+	public void startDeltaScreenshotSequence(String name, int frameDelay, int maxFrames, int keyframeInterval) {
+		screenshotTaker.startDeltaScreenshotSequence(name, frameDelay, maxFrames, keyframeInterval);
+	}
+
 	/**
 	 * Causes a screenshot sequence to end.
 	 * 
@@ -2108,6 +2339,61 @@ public class Solo {
 		screenshotTaker.stopScreenshotSequence();
 	}
 
+	/**
+	 * Returns the number of frames per second achieved by the current or last screenshot sequence.
+	 *
+	 * @return the achieved frames per second, or 0 if less than two frames have been taken
+	 */
+	public float getScreenshotSequenceFps() {
+		return screenshotTaker.getScreenshotSequenceFps();
+	}
+
+	/**
+	 * Returns the number of frames skipped by the current or last screenshot sequence because the previous
+	 * frame was still being taken or because the time of the frame had already passed.
+	 *
+	 * @return the number of skipped frames
+	 */
+	public int getSkippedScreenshotFrameCount() {
+		return screenshotTaker.getSkippedScreenshotFrameCount();
+	}
+
+	/**
+	 * Sets how screenshots are encoded and saved. Screenshots waiting to be saved are kept in a bounded queue 
+	 * and the overflow policy decides what happens when it is full:
+	 * <code>Solo.</code>{@link #SCREENSHOT_BLOCK} waits before taking the next screenshot, 
+	 * <code>Solo.</code>{@link #SCREENSHOT_DROP_OLDEST} drops the oldest waiting screenshot and 
+	 * <code>Solo.</code>{@link #SCREENSHOT_DROP_NEWEST} drops the new screenshot. 
+	 * Default is 2 encoders, a queue of 3 screenshots and <code>Solo.</code>{@link #SCREENSHOT_BLOCK}.
+	 * The encoders share the background threads of Robotium, so at most 2 encoders are allowed.
+	 * 
+	 * @param numberOfEncoders the maximum number of screenshots that are encoded at the same time, 1 or 2
+	 * @param queueCapacity the maximum number of screenshots waiting to be encoded
+	 * @param overflowPolicy <code>Solo.</code>{@link #SCREENSHOT_BLOCK}, <code>Solo.</code>{@link #SCREENSHOT_DROP_OLDEST} 
+	 * or <code>Solo.</code>{@link #SCREENSHOT_DROP_NEWEST}
+	 */
+	public void setScreenshotEncoding(int numberOfEncoders, int queueCapacity, int overflowPolicy) {
+		screenshotTaker.setScreenshotEncoding(numberOfEncoders, queueCapacity, overflowPolicy);
+	}
+
+	/**
+	 * Returns the number of screenshots that have been dropped because the screenshot queue was full.
+	 * 
+	 * @return the number of dropped screenshots
+	 */
+	public int getDroppedScreenshotCount() {
+		return screenshotTaker.getDroppedScreenshotCount();
+	}
+
+	/**
+	 * Returns the number of screenshots that are being taken or are waiting to be encoded.
+	 * 
+	 * @return the depth of the screenshot queue
+	 */
+	public int getPendingScreenshotCount() {
+		return screenshotTaker.getPendingScreenshotCount();
+	}
+
 	
 	/**
 	 * Initialize timeout using 'adb shell setprop' or use setLargeTimeout() and setSmallTimeout(). Will fall back to default hard coded values.
@@ -0,0 +1,89 @@
+package com.jayway.android.robotium.solo;
+
+import java.util.regex.Pattern;
+
+
+/**
+ * A text shown in a WebView and its location on the screen. Used when searching for texts so
+ * that a {@code TextView} only needs to be created for the text that is returned.
+ *
+ */
+
+class TextMatch {
+
+	private final String text;
+	private final int locationX;
+	private final int locationY;
+
+	/**
+	 * Constructs this object.
+	 *
+	 * @param text the text
+	 * @param locationX the X location of the text on the screen
+	 * @param locationY the Y location of the text on the screen
+	 */
+
+	public TextMatch(String text, int locationX, int locationY) {
+		this.text = text != null ? text : "";
+		this.locationX = locationX;
+		this.locationY = locationY;
+	}
+
+	/**
+	 * Returns the text.
+	 *
+	 * @return the text
+	 */
+
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * Returns the X location.
+	 *
+	 * @return the X location
+	 */
+
+	public int getLocationX() {
+		return locationX;
+	}
+
+	/**
+	 * Returns the Y location.
+	 *
+	 * @return the Y location
+	 */
+
+	public int getLocationY() {
+		return locationY;
+	}
+
+	/**
+	 * Checks if the text matches the given pattern. Line breaks are matched as spaces.
+	 *
+	 * @param pattern the pattern to match
+	 * @return {@code true} if the text matches the pattern
+	 */
+
+	public boolean matches(Pattern pattern) {
+		return pattern.matcher(text.replaceAll("[\n\r]", " ")).find();
+	}
+
+	@Override
+	public boolean equals(Object object) {
+		if(this == object){
+			return true;
+		}
+		if(!(object instanceof TextMatch)){
+			return false;
+		}
+		TextMatch textMatch = (TextMatch) object;
+		return locationX == textMatch.locationX && locationY == textMatch.locationY && text.equals(textMatch.text);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * (31 * text.hashCode() + locationX) + locationY;
+	}
+}
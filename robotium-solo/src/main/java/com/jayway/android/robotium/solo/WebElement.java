@@ -1,6 +1,9 @@
 package com.jayway.android.robotium.solo;
 
+import java.lang.ref.WeakReference;
 import java.util.Hashtable;
+import java.util.Map;
+import android.webkit.WebView;
 
 /**
  * Represents an element shown in a WebView.  
@@ -18,7 +21,9 @@ public class WebElement {
 	private String name;
 	private String className;
 	private String tagName;
-	private Hashtable<String, String> attributes;
+	private String[] attributes;
+	private WebQueryResult.Record record;
+	private WeakReference<WebView> webView;
 	
 
 	/**
@@ -41,6 +46,22 @@ public class WebElement {
 		this.setAttributes(attributes);
 	}
 
+	/**
+	 * Constructs this object from the record of a query. The attributes are read from the record when first asked for.
+	 * 
+	 * @param record the record of the web element
+	 */
+
+	WebElement(WebQueryResult.Record record) {
+
+		this.setId(record.id);
+		this.setTextContent(record.text);
+		this.setName(record.name);
+		this.setClassName(record.className);
+		this.setTagName(record.tagName);
+		this.record = record;
+	}
+
 	/**
 	 * Returns the WebElements location on screen.
 	 */
@@ -91,6 +112,26 @@ public class WebElement {
 		return this.locationY;
 	}
 
+	/**
+	 * Returns the WebView the {@code WebElement} is shown in.
+	 * 
+	 * @return the {@code WebView} or {@code null} if it is unknown
+	 */
+
+	public WebView getWebView() {
+		return webView != null ? webView.get() : null;
+	}
+
+	/**
+	 * Sets the WebView the {@code WebElement} is shown in.
+	 * 
+	 * @param webView the {@code WebView} the {@code WebElement} is shown in
+	 */
+
+	void setWebView(WebView webView) {
+		this.webView = new WeakReference<WebView>(webView);
+	}
+
 	/**
 	 * Returns the id.
 	 * 
@@ -198,8 +239,17 @@ public class WebElement {
 	 */
 
 	public String getAttribute(String attributeName) {
-		if (attributeName != null){
-			return this.attributes.get(attributeName);
+		if (attributes == null && record != null){
+			attributes = record.getAttributes();
+			record = null;
+		}
+
+		if (attributeName != null && attributes != null){
+			for(int index = 0; index < attributes.length; index += 2){
+				if(attributeName.equals(attributes[index])){
+					return attributes[index + 1];
+				}
+			}
 		}
 		
 		return null;
@@ -212,7 +262,15 @@ public class WebElement {
 	 */
 	
 	public void setAttributes(Hashtable<String,String> attributes) {
-		this.attributes = attributes;
+		String[] flatAttributes = new String[attributes.size() * 2];
+		int index = 0;
+
+		for(Map.Entry<String, String> attribute : attributes.entrySet()){
+			flatAttributes[index++] = attribute.getKey();
+			flatAttributes[index++] = attribute.getValue();
+		}
+		this.attributes = flatAttributes;
+		this.record = null;
 	}
 
 }
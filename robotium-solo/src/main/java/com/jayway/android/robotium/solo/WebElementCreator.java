@@ -1,10 +1,14 @@
 package com.jayway.android.robotium.solo;
 
 import java.util.ArrayList;
-import java.util.Hashtable;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
-import android.os.SystemClock;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import android.graphics.Point;
+import android.graphics.Rect;
 import android.webkit.WebView;
 
 /**
@@ -17,165 +21,270 @@ import android.webkit.WebView;
 
 class WebElementCreator {
 
-	private List<WebElement> webElements;
-	private Sleeper sleeper;
-	private boolean isFinished = false;
+	private static final long TIMEOUT = 5000;
+	private final Map<WebView, WebQueryResult> webQueryResults;
+	private int queryId = 0;
+	private volatile CountDownLatch finishedLatch;
+	private final Map<Integer, CountDownLatch> foundLatches;
+	private int waitId = 0;
 
 	/**
 	 * Constructs this object
 	 * 
-	 * @param sleeper the {@code Sleeper} instance
-	 * 
 	 */
 
-	public WebElementCreator(Sleeper sleeper){
-		this.sleeper = sleeper;
-		webElements = new CopyOnWriteArrayList<WebElement>();
+	public WebElementCreator(){
+		webQueryResults = new WeakHashMap<WebView, WebQueryResult>();
+		finishedLatch = new CountDownLatch(0);
+		foundLatches = new HashMap<Integer, CountDownLatch>();
 	}
 
 	/**
-	 * Prepares for start of creating {@code TextView} objects based on web elements 
+	 * Prepares for start of a query in the given number of {@code WebView} objects. Results 
+	 * of earlier queries that arrive after this call are ignored.
+	 * 
+	 * @param numberOfWebViews the number of {@code WebView} objects the query is executed in
+	 * @return the id of the query
 	 */
 
-	public void prepareForStart(){
-		setFinished(false);
-		webElements.clear();
+	public synchronized int prepareForStart(int numberOfWebViews){
+		queryId++;
+		webQueryResults.clear();
+		finishedLatch = new CountDownLatch(numberOfWebViews);
+		return queryId;
 	}
 
 	/**
-	 * Returns an {@code ArrayList} of {@code TextView} objects based on the web elements shown
+	 * Waits for the results of the executed query and returns them. Returns when all 
+	 * {@code WebView} objects have reported back or when the timeout has passed.
 	 * 
-	 * @return an {@code ArrayList} of {@code TextView} objects based on the web elements shown
+	 * @return the received {@code WebQueryResult} objects by the {@code WebView} they were received from
 	 */
 
-	public ArrayList<WebElement> getWebElementsFromWebViews(){
+	public Map<WebView, WebQueryResult> getWebQueryResults(){
 		waitForWebElementsToBeCreted();
-		return new ArrayList<WebElement>(webElements);
+
+		synchronized (this) {
+			return new HashMap<WebView, WebQueryResult>(webQueryResults);
+		}
 	}
 
 	/**
-	 * Returns true if all {@code TextView} objects based on web elements have been created
+	 * Prepares for a wait for a web element to be shown.
 	 * 
-	 * @return true if all {@code TextView} objects based on web elements have been created
+	 * @return the id of the wait
 	 */
 
-	public boolean isFinished(){
-		return isFinished;
+	public int prepareForWait(){
+		synchronized (foundLatches) {
+			waitId++;
+			foundLatches.put(waitId, new CountDownLatch(1));
+			return waitId;
+		}
 	}
 
-
 	/**
-	 * Set to true if all {@code TextView} objects have been created
+	 * Waits for RobotiumWeb.js to report that a web element of the given wait is shown.
 	 * 
-	 * @param isFinished true if all {@code TextView} objects have been created
+	 * @param id the id of the wait
+	 * @param timeout the amount of time in milliseconds to wait
+	 * @return {@code true} if a web element was reported before the timeout
 	 */
 
-	public void setFinished(boolean isFinished){
-		this.isFinished = isFinished;
+	public boolean waitForWebElementFound(int id, long timeout){
+		CountDownLatch foundLatch;
+
+		synchronized (foundLatches) {
+			foundLatch = foundLatches.get(id);
+		}
+		if(foundLatch == null){
+			return false;
+		}
+		try {
+			return foundLatch.await(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
 	}
 
 	/**
-	 * Creates a {@ WebElement} object from the given text and {@code WebView}
+	 * Ends a wait. Later reports for the wait are ignored.
 	 * 
-	 * @param webData the data of the web element 
-	 * @param webView the {@code WebView} the text is shown in
+	 * @param id the id of the wait
 	 */
 
-	public void createWebElementAndAddInList(String webData, WebView webView){
-
-		WebElement webElement = createWebElementAndSetLocation(webData, webView);
-
-		if((webElement!=null)) 
-			webElements.add(webElement);
+	public void removeWait(int id){
+		synchronized (foundLatches) {
+			foundLatches.remove(id);
+		}
 	}
 
 	/**
-	 * Sets the location of a {@code WebElement} 
+	 * Releases the thread waiting for the web element reported by RobotiumWeb.js.
 	 * 
-	 * @param webElement the {@code TextView} object to set location 
-	 * @param webView the {@code WebView} the text is shown in
-	 * @param x the x location to set
-	 * @param y the y location to set
-	 * @param width the width to set
-	 * @param height the height to set
+	 * @param foundData the id of the wait as sent by RobotiumWeb.js
 	 */
 
-	private void setLocation(WebElement webElement, WebView webView, int x, int y, int width, int height ){
-		float scale = webView.getScale();
-		int[] locationOfWebViewXY = new int[2];
-		webView.getLocationOnScreen(locationOfWebViewXY);
+	public void setWebElementFound(String foundData){
+		try{
+			int id = Integer.parseInt(foundData);
 
-		int locationX = (int) (locationOfWebViewXY[0] + (x + (Math.floor(width / 2))) * scale);
-		int locationY = (int) (locationOfWebViewXY[1] + (y + (Math.floor(height / 2))) * scale);
+			synchronized (foundLatches) {
+				CountDownLatch foundLatch = foundLatches.get(id);
 
-		webElement.setLocationX(locationX);
-		webElement.setLocationY(locationY);
+				if(foundLatch != null){
+					foundLatch.countDown();
+				}
+			}
+		}catch(NumberFormatException ignored){}
 	}
 
 	/**
-	 * Creates a {@code WebView} object 
-	 * 
-	 * @param information the data of the web element
-	 * @param webView the web view the text is shown in
+	 * Reads the result of a query as sent by RobotiumWeb.js. The result starts with the query id, the DOM version 
+	 * and whether the DOM was changed, followed by one group per selector. A group is the number of records 
+	 * followed by length prefixed records, one per web element, as read by {@link WebRecordReader}.
 	 * 
-	 * @return a {@code WebElement} object with a given text and location
+	 * @param webData the data of the web elements
+	 * @param webView the {@code WebView} the result was sent from
 	 */
 
-	private WebElement createWebElementAndSetLocation(String information, WebView webView){
-		String[] data = information.split(";,");
-		String[] elements = null;
-		int x = 0;
-		int y = 0;
-		int width = 0;
-		int height = 0;
-		Hashtable<String, String> attributes = new Hashtable<String, String>();
+	public void setWebData(String webData, WebView webView){
+		if(webData == null){
+			return;
+		}
+		WebRecordReader reader = new WebRecordReader(webData);
+
 		try{
-			x = Math.round(Float.valueOf(data[5]));
-			y = Math.round(Float.valueOf(data[6]));
-			width = Math.round(Float.valueOf(data[7]));
-			height = Math.round(Float.valueOf(data[8]));	
-			elements = data[9].split("\\#\\$");
-		}catch(Exception ignored){}
-
-		if(elements != null) {
-			for (int index = 0; index < elements.length; index++){
-				String[] element = elements[index].split("::");
-				if (element.length > 1) {
-					attributes.put(element[0], element[1]);
-				} else {
-					attributes.put(element[0], element[0]);
+			int resultQueryId = reader.nextInt();
+			int version = reader.nextInt();
+			boolean changed = reader.nextInt() != 0;
+			List<List<WebQueryResult.Record>> groups = null;
+
+			if(changed){
+				groups = new ArrayList<List<WebQueryResult.Record>>();
+				try{
+					while(reader.hasNext()){
+						int numberOfRecords = reader.nextInt();
+						List<WebQueryResult.Record> records = new ArrayList<WebQueryResult.Record>();
+						groups.add(records);
+
+						for(int i = 0; i < numberOfRecords; i++){
+							records.add(readRecord(reader));
+						}
+					}
+				}catch(IllegalArgumentException e){
+					// An incomplete result is not cached
+					version = -1;
 				}
 			}
-		}
-
-		WebElement webElement = null;
+			addWebQueryResult(resultQueryId, webView, new WebQueryResult(version, groups));
+		}catch(IllegalArgumentException ignored){}
+	}
 
-		try{
-			webElement = new WebElement(data[0], data[1], data[2], data[3], data[4], attributes);
-			setLocation(webElement, webView, x, y, width, height);
-		}catch(Exception ignored) {}
+	/**
+	 * Adds the result of a {@code WebView} if it belongs to the current query and 
+	 * releases the waiting thread when all {@code WebView} objects have reported back.
+	 * 
+	 * @param resultQueryId the id of the query the result belongs to
+	 * @param webView the {@code WebView} the result was sent from
+	 * @param webQueryResult the result
+	 */
 
-		return webElement;
+	private synchronized void addWebQueryResult(int resultQueryId, WebView webView, WebQueryResult webQueryResult){
+		if(resultQueryId == queryId && !webQueryResults.containsKey(webView)){
+			webQueryResults.put(webView, webQueryResult);
+			finishedLatch.countDown();
+		}
 	}
 
 	/**
-	 * Waits for {@code WebElement} objects to be created
+	 * Creates {@code WebElement} objects from the given records. The records only contain web elements 
+	 * shown in the visible part of the page. Web elements are clipped to the part of the {@code WebView} 
+	 * that is visible on the screen and left out if nothing of them is visible there. Their location is 
+	 * the centre of the visible part. The location of the {@code WebView} is looked up once.
 	 * 
-	 * @return true if successfully created before timout
+	 * @param records the records of the web elements
+	 * @param webView the {@code WebView} the web elements are shown in
+	 * @return an {@code ArrayList} of the created {@code WebElement} objects
 	 */
 
-	private boolean waitForWebElementsToBeCreted(){
-		final long endTime = SystemClock.uptimeMillis() + 5000;
+	public ArrayList<WebElement> createWebElements(List<WebQueryResult.Record> records, WebView webView){
+		ArrayList<WebElement> webElements = new ArrayList<WebElement>();
 
-		while(SystemClock.uptimeMillis() < endTime){
+		if(records == null){
+			return webElements;
+		}
+		float scale = webView.getScale();
+		int[] locationOfWebViewXY = new int[2];
+		webView.getLocationOnScreen(locationOfWebViewXY);
+		Rect visibleRect = new Rect();
+		Point globalOffset = new Point();
 
-			if(isFinished){
-				return true;
+		if(!webView.getGlobalVisibleRect(visibleRect, globalOffset)){
+			return webElements;
+		}
+		// The visible rect in the coordinates of the screen
+		visibleRect.offset(locationOfWebViewXY[0] - globalOffset.x, locationOfWebViewXY[1] - globalOffset.y);
+		Rect elementRect = new Rect();
+
+		for(WebQueryResult.Record record : records){
+			elementRect.set((int) (locationOfWebViewXY[0] + record.x * scale), (int) (locationOfWebViewXY[1] + record.y * scale), 
+					(int) (locationOfWebViewXY[0] + (record.x + record.width) * scale), (int) (locationOfWebViewXY[1] + (record.y + record.height) * scale));
+
+			if(elementRect.intersect(visibleRect)){
+				WebElement webElement = new WebElement(record);
+				webElement.setWebView(webView);
+				webElement.setLocationX(elementRect.centerX());
+				webElement.setLocationY(elementRect.centerY());
+				webElements.add(webElement);
 			}
+		}
+		return webElements;
+	}
+
+	/**
+	 * Reads the next record. The attributes are skipped and only read when asked for.
+	 * 
+	 * @param reader the reader positioned at the record of the web element
+	 * 
+	 * @return the record of the web element
+	 * @throws IllegalArgumentException if the record is malformed
+	 */
+
+	private WebQueryResult.Record readRecord(WebRecordReader reader){
+		String id = reader.nextString();
+		String text = reader.nextString();
+		String name = reader.nextString();
+		String className = reader.nextString();
+		String tagName = reader.nextString();
+		int x = reader.nextInt();
+		int y = reader.nextInt();
+		int width = reader.nextInt();
+		int height = reader.nextInt();
+		int attributesPosition = reader.getPosition();
+		int numberOfFields = reader.nextInt() * 2;
+
+		for(int index = 0; index < numberOfFields; index++){
+			reader.skip();
+		}
+		return new WebQueryResult.Record(id, text, name, className, tagName, x, y, width, height, reader.getData(), attributesPosition);
+	}
 
-			sleeper.sleepMini();
+	/**
+	 * Waits for {@code WebElement} objects to be created. Returns as soon as 
+	 * the JavaScript in all queried {@code WebView} objects has signalled that it is finished.
+	 * 
+	 * @return true if successfully created before timout
+	 */
+
+	private boolean waitForWebElementsToBeCreted(){
+		try {
+			return finishedLatch.await(TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
 		}
-		return false;
 	}
 
 }
\ No newline at end of file
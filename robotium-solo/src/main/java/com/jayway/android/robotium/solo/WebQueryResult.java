@@ -0,0 +1,113 @@
+package com.jayway.android.robotium.solo;
+
+import java.util.List;
+
+
+/**
+ * Holds the result of a query executed by RobotiumWeb.js.
+ *
+ */
+
+class WebQueryResult {
+
+	private final int version;
+	private final List<List<Record>> groups;
+
+	/**
+	 * Constructs this object.
+	 *
+	 * @param version the DOM version the query was executed at, or -1 if unknown
+	 * @param groups the records of the matched web elements, one group per selector, or {@code null} if the DOM was unchanged
+	 */
+
+	public WebQueryResult(int version, List<List<Record>> groups) {
+		this.version = version;
+		this.groups = groups;
+	}
+
+	/**
+	 * Returns the DOM version the query was executed at.
+	 *
+	 * @return the DOM version or -1 if it is unknown
+	 */
+
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Checks if the DOM was unchanged since the version given to the query.
+	 *
+	 * @return {@code true} if the DOM was unchanged and no records were sent
+	 */
+
+	public boolean isUnchanged() {
+		return groups == null;
+	}
+
+	/**
+	 * Returns the records of the matched web elements, one group per selector of the query.
+	 *
+	 * @return the groups of records or {@code null} if the DOM was unchanged
+	 */
+
+	public List<List<Record>> getGroups() {
+		return groups;
+	}
+
+	/**
+	 * The data of one matched web element. The location is relative to the visible part of the page. 
+	 * The attributes are kept as a slice of the received data and are only read when first asked for.
+	 */
+
+	static class Record {
+		final String id;
+		final String text;
+		final String name;
+		final String className;
+		final String tagName;
+		final int x;
+		final int y;
+		final int width;
+		final int height;
+		private final String data;
+		private final int attributesPosition;
+		private String[] attributes;
+
+		Record(String id, String text, String name, String className, String tagName, int x, int y, int width, int height, String data, int attributesPosition) {
+			this.id = id;
+			this.text = text;
+			this.name = name;
+			this.className = className;
+			this.tagName = tagName;
+			this.x = x;
+			this.y = y;
+			this.width = width;
+			this.height = height;
+			this.data = data;
+			this.attributesPosition = attributesPosition;
+		}
+
+		/**
+		 * Returns the attributes, reading them from the received data the first time.
+		 *
+		 * @return the attribute names and values, stored as name, value, name, value...
+		 */
+
+		synchronized String[] getAttributes() {
+			if(attributes == null){
+				WebRecordReader reader = new WebRecordReader(data, attributesPosition);
+				String[] attributes = new String[reader.nextInt() * 2];
+
+				for(int index = 0; index < attributes.length; index += 2){
+					String attributeName = reader.nextString();
+					String value = reader.nextString();
+					attributes[index] = attributeName;
+					attributes[index + 1] = value.length() > 0 ? value : attributeName;
+				}
+				this.attributes = attributes;
+			}
+			return attributes;
+		}
+	}
+}
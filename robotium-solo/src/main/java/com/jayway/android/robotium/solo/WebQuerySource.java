@@ -0,0 +1,79 @@
+package com.jayway.android.robotium.solo;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import android.webkit.WebView;
+
+
+/**
+ * Identifies the results that a list of web elements was created from: the queried WebViews,
+ * their locations and the records received from every WebView. A cached result is kept until
+ * the DOM of its WebView changes, so unchanged records mean an unchanged DOM version.
+ *
+ */
+
+class WebQuerySource {
+
+	private List<WeakReference<WebView>> webViews;
+	private int[] webViewLocations;
+	private List<List<List<WebQueryResult.Record>>> groupsOfWebViews;
+
+
+	/**
+	 * Checks if the given results are the ones this source was last updated with, and updates it if they are not.
+	 *
+	 * @param webViews the queried {@code WebView} objects
+	 * @param webViewLocations the locations of the {@code WebView} objects
+	 * @param groupsOfWebViews the groups of records of every {@code WebView}, {@code null} for a {@code WebView} that did not answer
+	 * @return {@code true} if the results have changed since the last update
+	 */
+
+	public boolean update(List<WebView> webViews, int[] webViewLocations, List<List<List<WebQueryResult.Record>>> groupsOfWebViews) {
+		if(isSame(webViews, webViewLocations, groupsOfWebViews)){
+			return false;
+		}
+		this.webViews = new ArrayList<WeakReference<WebView>>(webViews.size());
+
+		for(WebView webView : webViews){
+			this.webViews.add(new WeakReference<WebView>(webView));
+		}
+		this.webViewLocations = webViewLocations;
+		this.groupsOfWebViews = groupsOfWebViews;
+		return true;
+	}
+
+	/**
+	 * Forgets the last results, so that the next update is a change.
+	 */
+
+	public void clear() {
+		webViews = null;
+		webViewLocations = null;
+		groupsOfWebViews = null;
+	}
+
+	/**
+	 * Checks if the given results are the ones this source was last updated with.
+	 *
+	 * @param webViews the queried {@code WebView} objects
+	 * @param webViewLocations the locations of the {@code WebView} objects
+	 * @param groupsOfWebViews the groups of records of every {@code WebView}
+	 * @return {@code true} if the {@code WebView} objects, their locations and their records are the same
+	 */
+
+	private boolean isSame(List<WebView> webViews, int[] webViewLocations, List<List<List<WebQueryResult.Record>>> groupsOfWebViews) {
+		if(this.webViews == null || this.webViews.size() != webViews.size() || !Arrays.equals(this.webViewLocations, webViewLocations)){
+			return false;
+		}
+		for(int i = 0; i < webViews.size(); i++){
+			List<List<WebQueryResult.Record>> groups = groupsOfWebViews.get(i);
+
+			if(this.webViews.get(i).get() != webViews.get(i) || groups == null || this.groupsOfWebViews.get(i) != groups){
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,196 @@
+package com.jayway.android.robotium.solo;
+
+
+/**
+ * Reads the records sent by RobotiumWeb.js. A record is a sequence of fields and every
+ * field is written as its length, a ':' and the value, e.g. "5:hello". Values are therefore
+ * never escaped and may contain any character. The data is read in one pass without
+ * regular expressions or intermediate strings for the numeric fields.
+ *
+ */
+
+class WebRecordReader {
+
+	private static final int MAX_LENGTH_DIGITS = 9;
+	private static final int MAX_INT_DIGITS = 10;
+	private final String data;
+	private int position;
+
+	/**
+	 * Constructs this object.
+	 *
+	 * @param data the data to read
+	 */
+
+	public WebRecordReader(String data) {
+		this(data, 0);
+	}
+
+	/**
+	 * Constructs this object.
+	 *
+	 * @param data the data to read
+	 * @param position the position in the data to start reading at
+	 */
+
+	public WebRecordReader(String data, int position) {
+		this.data = data;
+		this.position = position;
+	}
+
+	/**
+	 * Returns the data that is read.
+	 *
+	 * @return the data
+	 */
+
+	public String getData() {
+		return data;
+	}
+
+	/**
+	 * Returns the position of the next field.
+	 *
+	 * @return the position in the data
+	 */
+
+	public int getPosition() {
+		return position;
+	}
+
+	/**
+	 * Checks if there is more data to read.
+	 *
+	 * @return {@code true} if there is more data to read
+	 */
+
+	public boolean hasNext() {
+		return position < data.length();
+	}
+
+	/**
+	 * Reads the next field as a {@code String}.
+	 *
+	 * @return the value of the next field
+	 * @throws IllegalArgumentException if the data is malformed
+	 */
+
+	public String nextString() {
+		int length = readLength();
+		String value = data.substring(position, position + length);
+		position += length;
+		return value;
+	}
+
+	/**
+	 * Skips the next field without creating its value.
+	 *
+	 * @throws IllegalArgumentException if the data is malformed
+	 */
+
+	public void skip() {
+		int length = readLength();
+		position += length;
+	}
+
+	/**
+	 * Reads the next field as an {@code int}.
+	 *
+	 * @return the value of the next field
+	 * @throws IllegalArgumentException if the data is malformed or the field is not an integer
+	 */
+
+	public int nextInt() {
+		int start = position;
+		int length = readLength();
+		int end = position + length;
+		boolean negative = false;
+		long value = 0;
+
+		if(position < end && data.charAt(position) == '-'){
+			negative = true;
+			position++;
+		}
+		if(position == end || end - position > MAX_INT_DIGITS){
+			throw malformed("Expected an integer at " + start);
+		}
+		while(position < end){
+			value = value * 10 + digit(data.charAt(position));
+			position++;
+		}
+		if(negative){
+			value = -value;
+		}
+		if(value < Integer.MIN_VALUE || value > Integer.MAX_VALUE){
+			throw malformed("Integer at " + start + " is out of range");
+		}
+		return (int) value;
+	}
+
+	/**
+	 * Reads the length prefix of the next field and skips the ':' separator. The length has at most 
+	 * {@code MAX_LENGTH_DIGITS} digits, so it can not overflow, and must fit in the remaining data.
+	 *
+	 * @return the length of the next field
+	 * @throws IllegalArgumentException if the data is malformed
+	 */
+
+	private int readLength() {
+		int length = 0;
+		int start = position;
+
+		while(position < data.length() && data.charAt(position) != ':'){
+			if(position - start == MAX_LENGTH_DIGITS){
+				throw malformed("Field length at " + start + " has too many digits");
+			}
+			length = length * 10 + digit(data.charAt(position));
+			position++;
+		}
+		if(position == start || position == data.length()){
+			throw malformed("Expected a field length at " + start);
+		}
+		position++;
+
+		if(length > remaining()){
+			throw malformed("Field at " + start + " exceeds the data");
+		}
+		return length;
+	}
+
+	/**
+	 * Returns the number of characters left to read.
+	 *
+	 * @return the number of characters after the current position
+	 */
+
+	private int remaining() {
+		return data.length() - position;
+	}
+
+	/**
+	 * Returns the value of a decimal digit.
+	 *
+	 * @param character the digit
+	 * @return the value of the digit
+	 * @throws IllegalArgumentException if the character is not a digit
+	 */
+
+	private int digit(char character) {
+		if(character < '0' || character > '9'){
+			throw malformed("Unexpected character '" + character + "' at " + position);
+		}
+		return character - '0';
+	}
+
+	/**
+	 * Returns the exception thrown for malformed data. All malformed data is reported with an
+	 * {@code IllegalArgumentException}, which is what the readers of the records catch.
+	 *
+	 * @param message the description of the problem
+	 * @return the exception to throw
+	 */
+
+	private IllegalArgumentException malformed(String message) {
+		return new IllegalArgumentException(message);
+	}
+}
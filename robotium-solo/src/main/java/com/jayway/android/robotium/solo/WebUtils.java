@@ -5,7 +5,15 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 import android.app.Instrumentation;
+import android.graphics.Rect;
+import android.os.SystemClock;
 import android.webkit.WebChromeClient;
 import android.webkit.WebView;
 import android.widget.TextView;
@@ -26,7 +34,12 @@ class WebUtils {
 	private ActivityUtils activityUtils;
 	RobotiumWebClient robotiumWebCLient;
 	WebElementCreator webElementCreator;
-	WebChromeClient originalWebChromeClient = null;
+	private static String javaScript = null;
+	private ArrayList<TextMatch> textMatches;
+	private final WebQuerySource textMatchSource;
+	private static final int MAX_CACHED_QUERIES = 16;
+	private static final int WATCH_POLL_TIME = 500;
+	private final WeakHashMap<WebView, Map<String, WebQueryResult>> queryCache;
 
 
 	/**
@@ -38,121 +51,374 @@ class WebUtils {
 	 * 
 	 */
 
-	public WebUtils(Instrumentation instrumentation, ActivityUtils activityUtils, ViewFetcher viewFetcher, Sleeper sleeper){
+	public WebUtils(Instrumentation instrumentation, ActivityUtils activityUtils, ViewFetcher viewFetcher){
 		this.inst = instrumentation;
 		this.activityUtils = activityUtils;
 		this.viewFetcher = viewFetcher;
-		webElementCreator = new WebElementCreator(sleeper);
+		webElementCreator = new WebElementCreator();
 		robotiumWebCLient = new RobotiumWebClient(instrumentation, webElementCreator);
+		queryCache = new WeakHashMap<WebView, Map<String, WebQueryResult>>();
+		textMatchSource = new WebQuerySource();
 	}
 
 	/**
-	 * Returns {@code TextView} objects based on web elements shown in the present WebViews
+	 * Returns the texts shown in the present WebViews. If the WebViews and their pages are unchanged 
+	 * since the last call, the text matches of the last call are returned.
 	 * 
-	 * @param onlyFromVisibleWebViews true if only from visible WebViews
-	 * @return an {@code ArrayList} of {@code TextViews}s created from the present {@code WebView}s 
+	 * @return an {@code ArrayList} of {@code TextMatch} objects of the texts shown in the present {@code WebView}s 
 	 */
 
-	public ArrayList<TextView> getTextViewsFromWebView(){
-		boolean javaScriptWasExecuted = executeJavaScriptFunction("allTexts();");	
+	public ArrayList<TextMatch> getTextMatchesFromWebView(){
+		ArrayList<WebView> webViews = getWebViewsToQuery();
 
-		return createAndReturnTextViewsFromWebElements(javaScriptWasExecuted);	
+		if(webViews.isEmpty()){
+			textMatches = null;
+			textMatchSource.clear();
+			return new ArrayList<TextMatch>();
+		}
+		if(textMatches == null){
+			textMatchSource.clear();
+		}
+		ArrayList<ArrayList<WebElement>> webElements = executeQuery(webViews, new String[]{"findAllTexts()"}, textMatchSource);
+
+		if(webElements != null){
+			textMatches = new ArrayList<TextMatch>(webElements.get(0).size());
+
+			for(WebElement webElement : webElements.get(0)){
+				textMatches.add(new TextMatch(webElement.getText(), webElement.getLocationX(), webElement.getLocationY()));
+			}
+		}
+		return new ArrayList<TextMatch>(textMatches);		
 	}
 
 	/**
-	 * Creates and returns TextView objects based on WebElements
+	 * Returns the locations, sizes and scales of the given WebViews
 	 * 
-	 * @return an ArrayList with TextViews
+	 * @param webViews the {@code WebView} objects
+	 * @return the x, y, width, height and scale of every {@code WebView} in order
 	 */
 
-	private ArrayList <TextView> createAndReturnTextViewsFromWebElements(boolean javaScriptWasExecuted){
-		ArrayList<TextView> webElementsAsTextViews = new ArrayList<TextView>();
-
-		if(javaScriptWasExecuted){
-			for(WebElement webElement : webElementCreator.getWebElementsFromWebViews()){
-				if(isWebElementSufficientlyShown(webElement)){
-					RobotiumTextView textView = new RobotiumTextView(inst.getContext(), webElement.getText(), webElement.getLocationX(), webElement.getLocationY());
-					webElementsAsTextViews.add(textView);
-				}
-			}	
+	private int[] getWebViewLocations(List<WebView> webViews){
+		int[] webViewLocations = new int[webViews.size() * 5];
+		int[] xy = new int[2];
+
+		for(int i = 0; i < webViews.size(); i++){
+			WebView webView = webViews.get(i);
+			webView.getLocationOnScreen(xy);
+			webViewLocations[i * 5] = xy[0];
+			webViewLocations[i * 5 + 1] = xy[1];
+			webViewLocations[i * 5 + 2] = webView.getWidth();
+			webViewLocations[i * 5 + 3] = webView.getHeight();
+			webViewLocations[i * 5 + 4] = Float.floatToIntBits(webView.getScale());
 		}
-		return webElementsAsTextViews;		
+		return webViewLocations;
 	}
 
 	/**
-	 * Returns an ArrayList of WebElements currently shown in the active WebView.
+	 * Creates a {@code TextView} object based on a text shown in a WebView
 	 * 
-	 * @return an {@code ArrayList} of the {@link WebElement} objects currently shown in the active WebView
+	 * @param textMatch the text shown in a WebView
+	 * @return a {@code TextView} with the text and location of the given {@code TextMatch}
 	 */
 
-	public ArrayList<WebElement> getCurrentWebElements(){
-		boolean javaScriptWasExecuted = executeJavaScriptFunction("allWebElements();");
+	public TextView createTextView(TextMatch textMatch){
+		return new RobotiumTextView(inst.getContext(), textMatch.getText(), textMatch.getLocationX(), textMatch.getLocationY());
+	}
+
+	/**
+	 * Returns an ArrayList of WebElements currently shown in the WebViews.
+	 * 
+	 * @return an {@code ArrayList} of the {@link WebElement} objects currently shown in the WebViews
+	 */
 
-		return getSufficientlyShownWebElements(javaScriptWasExecuted);
+	public ArrayList<WebElement> getCurrentWebElements(){
+		return executeQuery(getWebViewsToQuery(), new String[]{"findAll()"}, null).get(0);
 	}
 
 	/**
-	 * Returns an ArrayList of WebElements of the specified By object currently shown in the active WebView.
+	 * Returns an ArrayList of WebElements of the specified By object currently shown in the WebViews.
 	 * 
 	 * @param by the By object. Examples are By.id("id") and By.name("name")
-	 * @return an {@code ArrayList} of the {@link WebElement} objects currently shown in the active WebView 
+	 * @return an {@code ArrayList} of the {@link WebElement} objects currently shown in the WebViews 
 	 */
 
 	public ArrayList<WebElement> getCurrentWebElements(final By by){
-		boolean javaScriptWasExecuted = executeJavaScript(by);
+		return getWebElements(by).get(0);
+	}
+
+	/**
+	 * Returns an ArrayList of WebElements of the specified By object currently shown in the WebViews, 
+	 * unless they are created from the same results as the web elements the given source was last updated with. 
+	 * 
+	 * @param by the By object. Examples are By.id("id") and By.name("name")
+	 * @param source the source of the web elements the caller has, which is updated to the source of the returned web elements
+	 * @return an {@code ArrayList} of the {@link WebElement} objects currently shown in the WebViews, or {@code null} if they are unchanged 
+	 */
+
+	public ArrayList<WebElement> getCurrentWebElements(final By by, final WebQuerySource source){
+		ArrayList<ArrayList<WebElement>> webElements = executeQuery(getWebViewsToQuery(), new String[]{getFinderExpression(by)}, source);
+
+		if(webElements == null){
+			return null;
+		}
+		return webElements.get(0);
+	}
+
+	/**
+	 * Returns the WebElements currently shown in the WebViews for each of the specified By objects. 
+	 * All By objects are evaluated in one execution of JavaScript.
+	 * 
+	 * @param selectors the By objects. Examples are By.id("id") and By.name("name")
+	 * @return an {@code ArrayList} with one {@code ArrayList} of {@link WebElement} objects per By object, in the same order
+	 */
+
+	public ArrayList<ArrayList<WebElement>> getWebElements(final By... selectors){
+		String[] expressions = new String[selectors.length];
+
+		for(int i = 0; i < selectors.length; i++){
+			expressions[i] = getFinderExpression(selectors[i]);
+		}
+		return executeQuery(getWebViewsToQuery(), expressions, null);
+	}
+
+	/**
+	 * Executes the given finder expressions in all shown WebViews at once and returns the shown web elements. 
+	 * The web elements of the freshest WebView come first. If the result of the same query 
+	 * is cached, the query is only executed again if the DOM has changed since then. WebViews that 
+	 * do not answer, e.g. because their WebChromeClient has been replaced, get the Robotium WebChromeClient 
+	 * set again and are queried once more. 
+	 * 
+	 * @param webViews the {@code WebView} objects to query, starting with the freshest one
+	 * @param expressions the JavaScript expressions returning the nodes to collect, {@code null} for unsupported selectors
+	 * @param source {@code null} or the source of the web elements the caller has. It is updated to the results of this query, 
+	 * and the web elements are only created if the results have changed
+	 * @return one {@code ArrayList} of the {@code WebElement} objects matched per expression, or {@code null} if the results are 
+	 * the ones the given source was last updated with
+	 */
+
+	private ArrayList<ArrayList<WebElement>> executeQuery(final ArrayList<WebView> webViews, String[] expressions, WebQuerySource source){
+		ArrayList<ArrayList<WebElement>> webElements = new ArrayList<ArrayList<WebElement>>(expressions.length);
+		StringBuilder query = new StringBuilder();
+
+		for(String expression : expressions){
+			webElements.add(new ArrayList<WebElement>());
+			query.append("collect(").append(expression != null ? expression : "[]").append(");");
+		}
+		query.append("finished();");
+
+		if(webViews.isEmpty()){
+			if(source != null){
+				source.clear();
+			}
+			return webElements;
+		}
 
-		return getSufficientlyShownWebElements(javaScriptWasExecuted);
+		String function = query.toString();
+		String javaScript = prepareForStartOfJavascriptExecution(webViews);
+		int queryId = webElementCreator.prepareForStart(webViews.size());
+		WebQueryResult[] cachedResults = new WebQueryResult[webViews.size()];
+		String[] functions = new String[webViews.size()];
+
+		for(int i = 0; i < webViews.size(); i++){
+			cachedResults[i] = getCachedResult(webViews.get(i), function);
+			functions[i] = function;
+
+			if(cachedResults[i] != null){
+				functions[i] = "cached(" + cachedResults[i].getVersion() + ", function(){" + function + "});";
+			}
+		}
+
+		executeJavaScriptFunctions(webViews, functions, queryId, javaScript);
+		Map<WebView, WebQueryResult> results = webElementCreator.getWebQueryResults();
+		ArrayList<WebView> unansweredWebViews = new ArrayList<WebView>();
+
+		for(WebView webView : webViews){
+			if(!results.containsKey(webView)){
+				robotiumWebCLient.resetRobotiumWebClient(webView);
+				unansweredWebViews.add(webView);
+			}
+		}
+		if(!unansweredWebViews.isEmpty()){
+			String[] retryFunctions = new String[unansweredWebViews.size()];
+			Arrays.fill(retryFunctions, function);
+			javaScript = prepareForStartOfJavascriptExecution(unansweredWebViews);
+			queryId = webElementCreator.prepareForStart(unansweredWebViews.size());
+			executeJavaScriptFunctions(unansweredWebViews, retryFunctions, queryId, javaScript);
+			results.putAll(webElementCreator.getWebQueryResults());
+		}
+		List<List<List<WebQueryResult.Record>>> groupsOfWebViews = new ArrayList<List<List<WebQueryResult.Record>>>(webViews.size());
+		for(int i = 0; i < webViews.size(); i++){
+			WebView webView = webViews.get(i);
+			WebQueryResult result = results.get(webView);
+			List<List<WebQueryResult.Record>> groups = null;
+
+			if(result == null){
+				// The WebView did not answer again, it is set up anew by the next query
+				robotiumWebCLient.resetRobotiumWebClient(webView);
+			}
+			else if(result.isUnchanged() && cachedResults[i] != null){
+				groups = cachedResults[i].getGroups();
+			}
+			else{
+				groups = result.getGroups();
+				putCachedResult(webView, function, result);
+			}
+			groupsOfWebViews.add(groups);
+		}
+
+		if(source != null && !source.update(webViews, getWebViewLocations(webViews), groupsOfWebViews)){
+			return null;
+		}
+
+		for(int i = 0; i < webViews.size(); i++){
+			List<List<WebQueryResult.Record>> groups = groupsOfWebViews.get(i);
+
+			for(int group = 0; groups != null && group < groups.size() && group < expressions.length; group++){
+				webElements.get(group).addAll(webElementCreator.createWebElements(groups.get(group), webViews.get(i)));
+			}
+		}
+		return webElements;
 	}
 
 	/**
-	 * Returns the sufficiently shown WebElements
+	 * Returns the shown WebViews, starting with the freshest one. Hidden WebViews and WebViews 
+	 * that are not visible in their window are left out, as they would only delay the query.
 	 * 
-	 * @return the sufficiently shown WebElements
+	 * @return an {@code ArrayList} of the shown {@code WebView} objects
 	 */
 
-	private ArrayList<WebElement> getSufficientlyShownWebElements(boolean javaScriptWasExecuted){
-		ArrayList<WebElement> currentWebElements = new ArrayList<WebElement>();
+	private ArrayList<WebView> getWebViewsToQuery(){
+		ArrayList<WebView> currentWebViews = viewFetcher.getCurrentViews(WebView.class);
+		ArrayList<WebView> shownWebViews = new ArrayList<WebView>(currentWebViews.size());
+		Rect visibleRect = new Rect();
+
+		for(WebView webView : currentWebViews){
+			if(webView.isShown() && webView.getGlobalVisibleRect(visibleRect)){
+				shownWebViews.add(webView);
+			}
+		}
+		ArrayList<WebView> webViews = new ArrayList<WebView>(shownWebViews.size());
+		WebView freshestWebView = viewFetcher.getFreshestView(shownWebViews);
 
-		if(javaScriptWasExecuted){
-			for(WebElement webElement : webElementCreator.getWebElementsFromWebViews()){
-				if(isWebElementSufficientlyShown(webElement)){
-					currentWebElements.add(webElement);
+		if(freshestWebView == null){
+			return webViews;
+		}
+		webViews.add(freshestWebView);
+
+		for(WebView webView : shownWebViews){
+			if(webView != freshestWebView){
+				webViews.add(webView);
+			}
+		}
+		return webViews;
+	}
+
+	/**
+	 * Returns the cached result of a query
+	 * 
+	 * @param webView the {@code WebView} the query was executed in
+	 * @param function the query function
+	 * @return the cached {@code WebQueryResult} or {@code null} if there is none
+	 */
+
+	private WebQueryResult getCachedResult(WebView webView, String function){
+		synchronized (queryCache) {
+			Map<String, WebQueryResult> results = queryCache.get(webView);
+			return results != null ? results.get(function) : null;
+		}
+	}
+
+	/**
+	 * Caches the result of a query. Results of an unknown DOM version are not cached.
+	 * 
+	 * @param webView the {@code WebView} the query was executed in
+	 * @param function the query function
+	 * @param result the result to cache
+	 */
+
+	private void putCachedResult(WebView webView, String function, WebQueryResult result){
+		synchronized (queryCache) {
+			Map<String, WebQueryResult> results = queryCache.get(webView);
+
+			if(result.getVersion() == -1){
+				if(results != null){
+					results.remove(function);
 				}
+				return;
+			}
+
+			if(results == null){
+				results = new LinkedHashMap<String, WebQueryResult>(16, 0.75f, true) {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected boolean removeEldestEntry(Map.Entry<String, WebQueryResult> eldest) {
+						return size() > MAX_CACHED_QUERIES;
+					}
+				};
+				queryCache.put(webView, results);
 			}
+			results.put(function, result);
 		}
-		return currentWebElements;
 	}
 
 	/**
-	 * Prepares for start of JavaScript execution
+	 * Clears the cached query results of a {@code WebView}
 	 * 
+	 * @param webView the {@code WebView} whose cached results should be cleared
+	 */
+
+	private void clearCachedResults(WebView webView){
+		synchronized (queryCache) {
+			queryCache.remove(webView);
+		}
+	}
+
+	/**
+	 * Prepares for start of JavaScript execution. The Robotium WebChromeClient is only set in 
+	 * {@code WebView} objects that it has not already been set in.
+	 * 
+	 * @param webViews the {@code WebView} objects to execute JavaScript in, starting with the freshest one
 	 * @return the JavaScript as a String
 	 */
 
-	private String prepareForStartOfJavascriptExecution(){
-		webElementCreator.prepareForStart();
+	private String prepareForStartOfJavascriptExecution(List<WebView> webViews){
+		Map<WebView, WebChromeClient> originalWebChromeClients = null;
 
-		WebChromeClient currentWebChromeClient = getCurrentWebChromeClient();
+		for(WebView webView : webViews){
+			if(webView == null || robotiumWebCLient.isRobotiumWebClientSet(webView)){
+				continue;
+			}
+			WebChromeClient currentWebChromeClient = getCurrentWebChromeClient(webView);
 
-		if(currentWebChromeClient != null && !currentWebChromeClient.getClass().isAssignableFrom(RobotiumWebClient.class)){
-			originalWebChromeClient = getCurrentWebChromeClient();	
+			if(currentWebChromeClient instanceof RobotiumWebClient){
+				// Still set, the recorded original client is kept
+				currentWebChromeClient = null;
+			}
+			if(originalWebChromeClients == null){
+				originalWebChromeClients = new HashMap<WebView, WebChromeClient>();
+			}
+			originalWebChromeClients.put(webView, currentWebChromeClient);
 		}
 
-		robotiumWebCLient.enableJavascriptAndSetRobotiumWebClient(viewFetcher.getCurrentViews(WebView.class), originalWebChromeClient);
+		if(originalWebChromeClients != null){
+			robotiumWebCLient.enableJavascriptAndSetRobotiumWebClient(originalWebChromeClients);
+		}
 		return getJavaScriptAsString();
 	}
 	
 	/**
 	 * Returns the current WebChromeClient through reflection
 	 * 
+	 * @param webView the {@code WebView} whose WebChromeClient should be returned
 	 * @return the current WebChromeClient
 	 * 
 	 */
 
-	private WebChromeClient getCurrentWebChromeClient(){
+	private WebChromeClient getCurrentWebChromeClient(WebView webView){
 		WebChromeClient currentWebChromeClient = null;
 
-		Object currentWebView = viewFetcher.getFreshestView(viewFetcher.getCurrentViews(WebView.class));
+		Object currentWebView = webView;
 
 		if (android.os.Build.VERSION.SDK_INT >= 16) {
 			try{
@@ -176,107 +442,273 @@ class WebUtils {
 	 */
 
 	public void enterTextIntoWebElement(final By by, final String text){
-		if(by instanceof By.Id){
-			executeJavaScriptFunction("enterTextById(\""+by.getValue()+"\", \""+text+"\");");
-		}
-		else if(by instanceof By.Xpath){
-			executeJavaScriptFunction("enterTextByXpath(\""+by.getValue()+"\", \""+text+"\");");
+		Map<By, String> values = new HashMap<By, String>(1);
+		values.put(by, text);
+		fillWebForm(values);
+	}
+
+	/**
+	 * Enters texts into web elements in one execution of JavaScript in every shown WebView. The texts are 
+	 * entered into the web elements found in each WebView, whether they are scrolled into view or not. 
+	 * Input and change events are dispatched to every web element that the text is entered into. 
+	 * 
+	 * @param values the texts to enter by the By objects of the web elements
+	 * @return the texts by the By objects that no web element was found for
+	 */
+
+	public Map<By, String> fillWebForm(final Map<By, String> values){
+		Map<By, String> notFilled = new LinkedHashMap<By, String>(values);
+		ArrayList<By> selectors = new ArrayList<By>(values.size());
+		StringBuilder function = new StringBuilder();
+
+		for(Map.Entry<By, String> value : values.entrySet()){
+			By by = value.getKey();
+			String expression = getFinderExpression(by);
+
+			if(expression != null){
+				boolean onlyFirst = by instanceof By.Id || by instanceof By.Xpath || by instanceof By.CssSelector || by instanceof By.TagName;
+				function.append("enterText(").append(expression).append(", ").append(toJavaScriptString(value.getValue()))
+				.append(", ").append(onlyFirst).append(");");
+				selectors.add(by);
+			}
 		}
-		else if(by instanceof By.CssSelector){
-			executeJavaScriptFunction("enterTextByCssSelector(\""+by.getValue()+"\", \""+text+"\");");
+
+		ArrayList<WebView> webViews = getWebViewsToQuery();
+
+		if(selectors.isEmpty() || webViews.isEmpty()){
+			return notFilled;
 		}
-		else if(by instanceof By.Name){
-			executeJavaScriptFunction("enterTextByName(\""+by.getValue()+"\", \""+text+"\");");
+		function.append("finished();");
+		String[] functions = new String[webViews.size()];
+
+		for(int i = 0; i < webViews.size(); i++){
+			functions[i] = function.toString();
+			// Setting the value of an input does not mutate the DOM
+			clearCachedResults(webViews.get(i));
 		}
-		else if(by instanceof By.ClassName){
-			executeJavaScriptFunction("enterTextByClassName(\""+by.getValue()+"\", \""+text+"\");");
+		String javaScript = prepareForStartOfJavascriptExecution(webViews);
+		int queryId = webElementCreator.prepareForStart(webViews.size());
+		executeJavaScriptFunctions(webViews, functions, queryId, javaScript);
+
+		for(WebQueryResult result : webElementCreator.getWebQueryResults().values()){
+			List<List<WebQueryResult.Record>> groups = result.getGroups();
+
+			for(int i = 0; groups != null && i < groups.size() && i < selectors.size(); i++){
+				if(!groups.get(i).isEmpty()){
+					notFilled.remove(selectors.get(i));
+				}
+			}
 		}
-		else if(by instanceof By.Text){
-			executeJavaScriptFunction("enterTextByTextContent(\""+by.getValue()+"\", \""+text+"\");");
+		return notFilled;
+	}
+
+	/**
+	 * Waits for a web element matching the given By object to be shown. A watch is installed in the page 
+	 * that reports back as soon as a matching web element is shown, so the query is not repeated from here. 
+	 * The shown WebViews are checked every {@code WATCH_POLL_TIME} milliseconds and the watch is installed 
+	 * in new WebViews and again in WebViews that have started loading a page. The watch is removed when the wait ends.
+	 * 
+	 * @param by the By object e.g. By.id("id");
+	 * @param timeout the amount of time in milliseconds to wait
+	 * @return {@code true} if a matching web element is shown before the timeout
+	 */
+
+	public boolean waitForWebElement(final By by, int timeout){
+		String expression = getFinderExpression(by);
+
+		if(expression == null){
+			return false;
 		}
-		else if(by instanceof By.TagName){
-			executeJavaScriptFunction("enterTextByTagName(\""+by.getValue()+"\", \""+text+"\");");
+
+		final long endTime = SystemClock.uptimeMillis() + timeout;
+		final int waitId = webElementCreator.prepareForWait();
+		final String watchFunction = "watch(" + waitId + ", function(){return " + expression + ";});finished();";
+		ArrayList<WebView> watchedWebViews = new ArrayList<WebView>();
+
+		try{
+			while(true){
+				ArrayList<WebView> webViewsToWatch = new ArrayList<WebView>();
+
+				for(WebView webView : getWebViewsToQuery()){
+					if(!watchedWebViews.contains(webView) || !robotiumWebCLient.isJavaScriptInjectionKept(webView)){
+						webViewsToWatch.add(webView);
+					}
+				}
+				if(!webViewsToWatch.isEmpty()){
+					executeJavaScriptFunction(webViewsToWatch, watchFunction, true);
+
+					for(WebView webView : webViewsToWatch){
+						if(!watchedWebViews.contains(webView)){
+							watchedWebViews.add(webView);
+						}
+					}
+				}
+				final long timeLeft = endTime - SystemClock.uptimeMillis();
+
+				if(webElementCreator.waitForWebElementFound(waitId, Math.max(0, Math.min(timeLeft, WATCH_POLL_TIME)))){
+					return true;
+				}
+				if(timeLeft <= WATCH_POLL_TIME){
+					return false;
+				}
+			}
+		}finally{
+			webElementCreator.removeWait(waitId);
+
+			if(!watchedWebViews.isEmpty()){
+				executeJavaScriptFunction(watchedWebViews, "unwatch(" + waitId + ");finished();", false);
+			}
 		}
 	}
 
 	/**
-	 * Executes JavaScript determined by the given By object
+	 * Returns the JavaScript expression finding the nodes matched by the given By object
 	 * 
 	 * @param by the By object e.g. By.id("id");
-	 * @return true if JavaScript function was executed
+	 * @return the expression as a String or {@code null} if the By object is not supported
 	 */
 
-	private boolean executeJavaScript(final By by){
+	private String getFinderExpression(final By by){
 		if(by instanceof By.Id){
-			return executeJavaScriptFunction("id(\""+by.getValue()+"\");");
+			return "findById(" + toJavaScriptString(by.getValue()) + ")";
 		}
 		else if(by instanceof By.Xpath){
-			return executeJavaScriptFunction("xpath(\""+by.getValue()+"\");");
+			return "findByXpath(" + toJavaScriptString(by.getValue()) + ")";
 		}
 		else if(by instanceof By.CssSelector){
-			return executeJavaScriptFunction("cssSelector(\""+by.getValue()+"\");");
+			return "findByCssSelector(" + toJavaScriptString(by.getValue()) + ")";
 		}
 		else if(by instanceof By.Name){
-			return executeJavaScriptFunction("name(\""+by.getValue()+"\");");
+			return "findByName(" + toJavaScriptString(by.getValue()) + ")";
 		}
 		else if(by instanceof By.ClassName){
-			return executeJavaScriptFunction("className(\""+by.getValue()+"\");");
+			return "findByClassName(" + toJavaScriptString(by.getValue()) + ")";
 		}
 		else if(by instanceof By.Text){
-			return executeJavaScriptFunction("textContent(\""+by.getValue()+"\");");
+			return "findByTextContent(" + toJavaScriptString(by.getValue()) + ")";
 		}
 		else if(by instanceof By.TagName){
-			return executeJavaScriptFunction("tagName(\""+by.getValue()+"\");");
+			return "findByTagName(" + toJavaScriptString(by.getValue()) + ")";
+		}
+		else if(by instanceof By.And){
+			return getCompoundExpression("and", ((By.And) by).getSelectors());
+		}
+		else if(by instanceof By.Or){
+			return getCompoundExpression("or", ((By.Or) by).getSelectors());
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the JavaScript expression combining the nodes matched by the given By objects
+	 * 
+	 * @param function the JavaScript function combining the nodes, {@code and} or {@code or}
+	 * @param selectors the By objects to combine
+	 * @return the expression as a String or {@code null} if any of the By objects is not supported
+	 */
+
+	private String getCompoundExpression(String function, By[] selectors){
+		if(selectors == null || selectors.length == 0){
+			return null;
+		}
+		StringBuilder expression = new StringBuilder(function).append("(");
+
+		for(int i = 0; i < selectors.length; i++){
+			String selectorExpression = getFinderExpression(selectors[i]);
+
+			if(selectorExpression == null){
+				return null;
+			}
+			if(i > 0){
+				expression.append(", ");
+			}
+			expression.append(selectorExpression);
 		}
-		return false;
+		return expression.append(")").toString();
 	}
 
 	/**
-	 * Executes the given JavaScript function
+	 * Executes the given JavaScript function in the given {@code WebView} objects
 	 * 
+	 * @param webViews the {@code WebView} objects to execute the function in, starting with the freshest one
 	 * @param function the function as a String
-	 * @return true if JavaScript function was executed
+	 * @param waitForCompletion {@code true} if the call should wait for the function to finish in all {@code WebView} objects
 	 */
 
-	private boolean executeJavaScriptFunction(final String function){
-		final WebView webView = viewFetcher.getFreshestView(viewFetcher.getCurrentViews(WebView.class));
+	private void executeJavaScriptFunction(List<WebView> webViews, String function, boolean waitForCompletion){
+		String[] functions = new String[webViews.size()];
 
-		if(webView == null){
-			return false;
+		for(int i = 0; i < functions.length; i++){
+			functions[i] = function;
 		}
 
-		final String javaScript = prepareForStartOfJavascriptExecution();
+		String javaScript = prepareForStartOfJavascriptExecution(webViews);
+		int queryId = webElementCreator.prepareForStart(webViews.size());
+		executeJavaScriptFunctions(webViews, functions, queryId, javaScript);
 
+		if(waitForCompletion){
+			webElementCreator.getWebQueryResults();
+		}
+	}
+
+	/**
+	 * Executes the given JavaScript functions, one per {@code WebView}, in a single pass on the main thread. 
+	 * RobotiumWeb.js is only injected if it has not already been injected into the page shown in the WebView.
+	 * 
+	 * @param webViews the {@code WebView} objects to execute the functions in
+	 * @param functions the functions as Strings, in the same order as the {@code WebView} objects
+	 * @param queryId the id of the query, sent back with the results
+	 * @param javaScript the JavaScript file RobotiumWeb.js as a String
+	 */
+
+	private void executeJavaScriptFunctions(final List<WebView> webViews, final String[] functions, final int queryId, final String javaScript){
 		activityUtils.getCurrentActivity().runOnUiThread(new Runnable() {
 			public void run() {
-				if(webView != null){
-					webView.loadUrl("javascript:" + javaScript + function);
+				for(int i = 0; i < webViews.size(); i++){
+					WebView webView = webViews.get(i);
+					String function = "robotiumQueryId=" + queryId + ";" + functions[i];
+
+					if(robotiumWebCLient.isJavaScriptInjected(webView)){
+						webView.loadUrl("javascript:" + function);
+					}
+					else{
+						webView.loadUrl("javascript:" + javaScript + function);
+						robotiumWebCLient.setJavaScriptInjected(webView);
+					}
 				}
 			}
 		});
-		return true;
 	}
 
 	/**
-	 * Returns true if the view is sufficiently shown
-	 *
-	 * @param view the view to check
-	 * @return true if the view is sufficiently shown
+	 * Returns the given text as a quoted JavaScript string literal. Characters that could end the 
+	 * literal, or that would be decoded in a javascript: URL, are written as unicode escapes.
+	 * 
+	 * @param text the text to quote
+	 * @return the JavaScript string literal
 	 */
 
-	public final boolean isWebElementSufficientlyShown(WebElement webElement){
-		final WebView webView = viewFetcher.getFreshestView(viewFetcher.getCurrentViews(WebView.class));
-		final int[] xyWebView = new int[2];
+	static String toJavaScriptString(String text){
+		if(text == null){
+			return "null";
+		}
+		StringBuilder literal = new StringBuilder(text.length() + 2);
+		literal.append('"');
 
-		if(webView != null && webElement != null){
-			webView.getLocationOnScreen(xyWebView);
+		for(int i = 0; i < text.length(); i++){
+			char character = text.charAt(i);
 
-			if(xyWebView[1] + webView.getHeight() > webElement.getLocationY())
-				return true;
+			if(character < 0x20 || character == '"' || character == '\\' || character == '\'' || character == '%' 
+					|| character == '<' || character == '>' || character == '\u2028' || character == '\u2029'){
+				literal.append(String.format("\\u%04x", (int) character));
+			}
+			else{
+				literal.append(character);
+			}
 		}
-		return false;
+		return literal.append('"').toString();
 	}
-	
+
 	/**
 	 * Splits a name by upper case.
 	 * 
@@ -302,26 +734,30 @@ class WebUtils {
 	}
 
 	/**
-	 * Returns the JavaScript file RobotiumWeb.js as a String
+	 * Returns the JavaScript file RobotiumWeb.js as a String. The file is only read once.
 	 *  
 	 * @return the JavaScript file RobotiumWeb.js as a {@code String} 
 	 */
 
-	private String getJavaScriptAsString() {
-		InputStream fis = getClass().getResourceAsStream("RobotiumWeb.js");
-		StringBuffer javaScript = new StringBuffer();
+	private static synchronized String getJavaScriptAsString() {
+		if(javaScript != null){
+			return javaScript;
+		}
+		InputStream fis = WebUtils.class.getResourceAsStream("RobotiumWeb.js");
+		StringBuilder javaScriptBuilder = new StringBuilder();
 
 		try {
 			BufferedReader input =  new BufferedReader(new InputStreamReader(fis));
 			String line = null;
 			while (( line = input.readLine()) != null){
-				javaScript.append(line);
-				javaScript.append("\n");
+				javaScriptBuilder.append(line);
+				javaScriptBuilder.append("\n");
 			}
 			input.close();
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
-		return javaScript.toString();
+		javaScript = javaScriptBuilder.toString();
+		return javaScript;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,195 @@
+package com.jayway.android.robotium.solo;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import junit.framework.TestCase;
+
+
+/**
+ * Tests that frames written by {@link ScreenshotDeltaEncoder} are rebuilt by {@link ScreenshotSequenceDecoder}.
+ *
+ */
+
+public class ScreenshotSequenceDecoderTest extends TestCase {
+
+	// 3 x 2 tiles where the right column is 6 pixels wide and the bottom row is 8 pixels high
+	private static final int WIDTH = 2 * ScreenshotDeltaEncoder.TILE_SIZE + 6;
+	private static final int HEIGHT = ScreenshotDeltaEncoder.TILE_SIZE + 8;
+	private File file;
+
+	@Override
+	protected void setUp() throws Exception {
+		file = File.createTempFile("sequence", ".rsq");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		file.delete();
+	}
+
+	public void testRebuildsKeyframeDeltaFrameAndEdgeTiles() throws IOException {
+		int[] first = createFrame(WIDTH, HEIGHT, 1);
+		int[] second = first.clone();
+		second[3 * WIDTH + 5] = 0xff00ff00;
+		second[(HEIGHT - 1) * WIDTH + WIDTH - 1] = 0xffff0000;
+		int[] third = second.clone();
+		third[0] = 0x80123456;
+
+		ScreenshotDeltaEncoder encoder = new ScreenshotDeltaEncoder(file, 2);
+		encoder.writeFrame(0, 100, first, WIDTH, HEIGHT);
+		encoder.writeFrame(1, 200, second, WIDTH, HEIGHT);
+		encoder.writeFrame(2, 300, third, WIDTH, HEIGHT);
+		encoder.finish();
+
+		ScreenshotSequenceDecoder decoder = new ScreenshotSequenceDecoder(new FileInputStream(file));
+		try {
+			assertFrame(decoder, 0, 100, true, 6, first);
+			// Only the top left tile and the partial bottom right tile have changed
+			assertFrame(decoder, 1, 200, false, 2, second);
+			assertFrame(decoder, 2, 300, true, 6, third);
+			assertFalse(decoder.nextFrame());
+		} finally {
+			decoder.close();
+		}
+	}
+
+	public void testStartsKeyframeWhenTheSizeChanges() throws IOException {
+		int[] first = createFrame(WIDTH, HEIGHT, 1);
+		int[] second = createFrame(HEIGHT, WIDTH, 2);
+
+		ScreenshotDeltaEncoder encoder = new ScreenshotDeltaEncoder(file, 10);
+		encoder.writeFrame(0, 100, first, WIDTH, HEIGHT);
+		encoder.writeFrame(1, 200, second, HEIGHT, WIDTH);
+		encoder.finish();
+
+		ScreenshotSequenceDecoder decoder = new ScreenshotSequenceDecoder(new FileInputStream(file));
+		try {
+			assertFrame(decoder, 0, 100, true, 6, first);
+			assertFrame(decoder, 1, 200, true, 6, second);
+			assertEquals(HEIGHT, decoder.getWidth());
+			assertEquals(WIDTH, decoder.getHeight());
+			assertFalse(decoder.nextFrame());
+		} finally {
+			decoder.close();
+		}
+	}
+
+	public void testWritesFrameAsPng() throws IOException {
+		int[] pixels = createFrame(WIDTH, HEIGHT, 3);
+		ByteArrayOutputStream png = new ByteArrayOutputStream();
+		ScreenshotSequenceDecoder.writePng(png, pixels, WIDTH, HEIGHT);
+
+		BufferedImage image = ImageIO.read(new ByteArrayInputStream(png.toByteArray()));
+		assertEquals(WIDTH, image.getWidth());
+		assertEquals(HEIGHT, image.getHeight());
+		assertTrue(Arrays.equals(pixels, image.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH)));
+	}
+
+	public void testSequenceOfBlinkingCursorIsTenTimesSmallerThanJpegFrames() throws IOException {
+		long[] sizes = compareToJpegFrames(false);
+		assertTrue("sequence " + sizes[0] + " bytes, JPEG frames " + sizes[1] + " bytes", sizes[0] * 10 < sizes[1]);
+	}
+
+	public void testSequenceOfScrollingListIsSmallerThanJpegFrames() throws IOException {
+		// Every tile changes while scrolling, which leaves only the compression of the flat background
+		long[] sizes = compareToJpegFrames(true);
+		assertTrue("sequence " + sizes[0] + " bytes, JPEG frames " + sizes[1] + " bytes", sizes[0] < sizes[1]);
+	}
+
+	/**
+	 * Writes 30 frames of a 480 x 800 list with a blinking cursor as a sequence and as JPEG frames
+	 * with the default quality of Solo.startScreenshotSequence.
+	 *
+	 * @param scrolling whether the list scrolls by 2 pixels every frame
+	 * @return the size of the sequence and the total size of the JPEG frames, in bytes
+	 */
+
+	private long[] compareToJpegFrames(boolean scrolling) throws IOException {
+		int width = 480;
+		int height = 800;
+		int frames = 30;
+		ScreenshotDeltaEncoder encoder = new ScreenshotDeltaEncoder(file, 50);
+		long jpegSize = 0;
+
+		for(int frame = 0; frame < frames; frame++) {
+			int[] pixels = createScreen(width, height, scrolling ? frame * 2 : 0, frame % 2 == 0);
+			encoder.writeFrame(frame, frame * 100, pixels, width, height);
+			jpegSize += jpegSize(pixels, width, height, 80);
+		}
+		encoder.finish();
+		System.out.println(frames + " frames of " + width + "x" + height + (scrolling ? " scrolling" : " with a blinking cursor") 
+				+ ": " + file.length() + " bytes as a sequence, " + jpegSize + " bytes as JPEG frames with quality 80");
+		return new long[] {file.length(), jpegSize};
+	}
+
+	private void assertFrame(ScreenshotSequenceDecoder decoder, int frameNumber, long time, boolean keyframe, int numberOfTiles, int[] pixels) throws IOException {
+		assertTrue(decoder.nextFrame());
+		assertEquals(frameNumber, decoder.getFrameNumber());
+		assertEquals(time, decoder.getTime());
+		assertEquals(keyframe, decoder.isKeyframe());
+		assertEquals(numberOfTiles, decoder.getNumberOfTiles());
+		assertTrue("pixels of frame " + frameNumber, Arrays.equals(pixels, decoder.getPixels()));
+	}
+
+	private static int[] createFrame(int width, int height, int seed) {
+		int[] pixels = new int[width * height];
+
+		for(int i = 0; i < pixels.length; i++) {
+			pixels[i] = 0xff000000 | (int) ((i * 2654435761L * seed >>> 8) & 0xffffff);
+		}
+		return pixels;
+	}
+
+	private static int[] createScreen(int width, int height, int scroll, boolean cursor) {
+		int[] pixels = new int[width * height];
+		Arrays.fill(pixels, 0xfffafafa);
+		int rowHeight = 48;
+
+		for(int y = 0; y < height; y++) {
+			int row = (y + scroll) / rowHeight;
+			int yInRow = (y + scroll) % rowHeight;
+
+			for(int x = 0; x < width; x++) {
+				if(yInRow == rowHeight - 1) {
+					pixels[y * width + x] = 0xffdddddd;
+				}
+				// Text glyphs of the row, shaped by the row number
+				else if(yInRow > 14 && yInRow < 32 && x > 16 && x < 16 + (row * 97 % 300) && ((x / 3 + yInRow / 2 + row) % 4 == 0)) {
+					pixels[y * width + x] = 0xff212121;
+				}
+			}
+		}
+		if(cursor) {
+			for(int y = 760; y < 784; y++) {
+				pixels[y * width + 200] = 0xff000000;
+			}
+		}
+		return pixels;
+	}
+
+	private static long jpegSize(int[] pixels, int width, int height, int quality) throws IOException {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		image.setRGB(0, 0, width, height, pixels, 0, width);
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+		ImageWriteParam param = writer.getDefaultWriteParam();
+		param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+		param.setCompressionQuality(quality / 100f);
+		ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+		MemoryCacheImageOutputStream outputStream = new MemoryCacheImageOutputStream(jpeg);
+		writer.setOutput(outputStream);
+		writer.write(null, new IIOImage(image, null, null), param);
+		outputStream.close();
+		writer.dispose();
+		return jpeg.size();
+	}
+}
@@ -0,0 +1,149 @@
+package com.jayway.android.robotium.solo;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Hashtable;
+
+
+/**
+ * Compares reading web element records with {@link WebRecordReader} to the former parsing of
+ * ';,' separated records with {@code String.split}, {@code Float.valueOf} and a {@code Hashtable}
+ * per element. Runs on a plain JVM and prints the time and the allocated bytes per page of elements:
+ * <p>
+ * {@code java -cp target/classes:target/test-classes com.jayway.android.robotium.solo.WebRecordReaderBenchmark}
+ *
+ */
+
+public class WebRecordReaderBenchmark {
+
+	private static final int ELEMENTS = 200;
+	private static final int ATTRIBUTES = 5;
+	private static final int WARMUP_ROUNDS = 2000;
+	private static final int ROUNDS = 5000;
+
+	public static void main(String[] args) {
+		String[] splitRecords = createSplitRecords();
+		String lengthPrefixedRecords = createLengthPrefixedRecords();
+		int result = 0;
+
+		for(int i = 0; i < WARMUP_ROUNDS; i++){
+			result += parseSplitRecords(splitRecords) + readLengthPrefixedRecords(lengthPrefixedRecords);
+		}
+		long splitBytes = allocatedBytes();
+		long splitTime = System.nanoTime();
+
+		for(int i = 0; i < ROUNDS; i++){
+			result += parseSplitRecords(splitRecords);
+		}
+		splitTime = System.nanoTime() - splitTime;
+		splitBytes = allocatedBytes() - splitBytes;
+		long readerBytes = allocatedBytes();
+		long readerTime = System.nanoTime();
+
+		for(int i = 0; i < ROUNDS; i++){
+			result += readLengthPrefixedRecords(lengthPrefixedRecords);
+		}
+		readerTime = System.nanoTime() - readerTime;
+		readerBytes = allocatedBytes() - readerBytes;
+
+		System.out.println(ELEMENTS + " elements with " + ATTRIBUTES + " attributes per page, " + ROUNDS + " pages (" + result + ")");
+		print("split", splitTime, splitBytes);
+		print("WebRecordReader", readerTime, readerBytes);
+	}
+
+	private static void print(String name, long time, long bytes) {
+		System.out.println(name + ": " + (time / ROUNDS / 1000) + " us and "
+				+ (bytes < 0 ? "unknown" : String.valueOf(bytes / ROUNDS)) + " bytes per page");
+	}
+
+	private static long allocatedBytes() {
+		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+		if(threadMXBean instanceof com.sun.management.ThreadMXBean){
+			return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	private static String[] createSplitRecords() {
+		String[] records = new String[ELEMENTS];
+
+		for(int i = 0; i < ELEMENTS; i++){
+			StringBuilder attributes = new StringBuilder();
+
+			for(int a = 0; a < ATTRIBUTES; a++){
+				if(a > 0){
+					attributes.append("#$");
+				}
+				attributes.append("attribute").append(a).append("::value ").append(i);
+			}
+			records[i] = "id" + i + ";,Text of element " + i + ";,name" + i + ";,class" + i + ";,DIV;,"
+					+ (i * 1.5f) + ";," + (i * 20.25f) + ";,100.5;,20.75;," + attributes;
+		}
+		return records;
+	}
+
+	private static String createLengthPrefixedRecords() {
+		StringBuilder records = new StringBuilder(field(ELEMENTS));
+
+		for(int i = 0; i < ELEMENTS; i++){
+			records.append(field("id" + i)).append(field("Text of element " + i)).append(field("name" + i))
+			.append(field("class" + i)).append(field("DIV")).append(field(Math.round(i * 1.5f)))
+			.append(field(Math.round(i * 20.25f))).append(field(101)).append(field(21)).append(field(ATTRIBUTES));
+
+			for(int a = 0; a < ATTRIBUTES; a++){
+				records.append(field("attribute" + a)).append(field("value " + i));
+			}
+		}
+		return records.toString();
+	}
+
+	private static String field(Object value) {
+		String field = String.valueOf(value);
+		return field.length() + ":" + field;
+	}
+
+	private static int parseSplitRecords(String[] records) {
+		int result = 0;
+
+		for(String record : records){
+			String[] data = record.split(";,");
+			int x = Math.round(Float.valueOf(data[5]));
+			int y = Math.round(Float.valueOf(data[6]));
+			int width = Math.round(Float.valueOf(data[7]));
+			int height = Math.round(Float.valueOf(data[8]));
+			String[] elements = data[9].split("\\#\\$");
+			Hashtable<String, String> attributes = new Hashtable<String, String>();
+
+			for(int index = 0; index < elements.length; index++){
+				String[] element = elements[index].split("::");
+				attributes.put(element[0], element.length > 1 ? element[1] : element[0]);
+			}
+			result += x + y + width + height + attributes.size() + data[0].length() + data[1].length();
+		}
+		return result;
+	}
+
+	private static int readLengthPrefixedRecords(String records) {
+		WebRecordReader reader = new WebRecordReader(records);
+		int numberOfRecords = reader.nextInt();
+		int result = 0;
+
+		for(int i = 0; i < numberOfRecords; i++){
+			String id = reader.nextString();
+			String text = reader.nextString();
+			reader.nextString();
+			reader.nextString();
+			reader.nextString();
+			result += reader.nextInt() + reader.nextInt() + reader.nextInt() + reader.nextInt() + id.length() + text.length();
+			int numberOfFields = reader.nextInt() * 2;
+
+			// The attributes are only read when asked for
+			for(int index = 0; index < numberOfFields; index++){
+				reader.skip();
+			}
+			result += numberOfFields / 2;
+		}
+		return result;
+	}
+}
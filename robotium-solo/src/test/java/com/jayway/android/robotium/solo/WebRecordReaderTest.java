@@ -0,0 +1,177 @@
+package com.jayway.android.robotium.solo;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Tests {@link WebRecordReader} with records in the format written by RobotiumWeb.js.
+ *
+ */
+
+public class WebRecordReaderTest extends TestCase {
+
+	public void testReadsEmptyFields() {
+		WebRecordReader reader = new WebRecordReader("0:0:5:hello");
+
+		assertEquals("", reader.nextString());
+		assertEquals("", reader.nextString());
+		assertEquals("hello", reader.nextString());
+		assertFalse(reader.hasNext());
+	}
+
+	public void testReadsNullAsText() {
+		// RobotiumWeb.js writes a missing value, e.g. a missing name attribute, as the text "null"
+		WebRecordReader reader = new WebRecordReader("4:null");
+
+		assertEquals("null", reader.nextString());
+		assertFalse(reader.hasNext());
+	}
+
+	public void testReadsValuesWithSeparatorsAndDigits() {
+		WebRecordReader reader = new WebRecordReader("9:12:34:5673::::9:3:abc:def");
+
+		assertEquals("12:34:567", reader.nextString());
+		assertEquals(":::", reader.nextString());
+		assertEquals("3:abc:def", reader.nextString());
+		assertFalse(reader.hasNext());
+	}
+
+	public void testReadsMultiByteText() {
+		String text = "h\u00e9llo \u65e5\u672c \ud83d\ude00";
+		WebRecordReader reader = new WebRecordReader(text.length() + ":" + text + "2:\u00e5\u00e4");
+
+		assertEquals(text, reader.nextString());
+		assertEquals("\u00e5\u00e4", reader.nextString());
+		assertFalse(reader.hasNext());
+	}
+
+	public void testReadsIntegers() {
+		WebRecordReader reader = new WebRecordReader("1:03:-4210:2147483647");
+
+		assertEquals(0, reader.nextInt());
+		assertEquals(-42, reader.nextInt());
+		assertEquals(Integer.MAX_VALUE, reader.nextInt());
+		assertFalse(reader.hasNext());
+	}
+
+	public void testSkipsFields() {
+		WebRecordReader reader = new WebRecordReader("5:hello0:2:12");
+
+		reader.skip();
+		reader.skip();
+		assertEquals(12, reader.nextInt());
+		assertFalse(reader.hasNext());
+	}
+
+	public void testStartsAtPosition() {
+		String data = "2:id4:text";
+		WebRecordReader reader = new WebRecordReader(data, 4);
+
+		assertSame(data, reader.getData());
+		assertEquals(4, reader.getPosition());
+		assertEquals("text", reader.nextString());
+		assertEquals(data.length(), reader.getPosition());
+	}
+
+	public void testReadsAttributeCountAndPairs() {
+		WebRecordReader reader = new WebRecordReader("1:24:type4:text8:disabled0:");
+		int numberOfAttributes = reader.nextInt();
+
+		assertEquals(2, numberOfAttributes);
+		assertEquals("type", reader.nextString());
+		assertEquals("text", reader.nextString());
+		assertEquals("disabled", reader.nextString());
+		assertEquals("", reader.nextString());
+		assertFalse(reader.hasNext());
+	}
+
+	public void testReadsNoAttributes() {
+		WebRecordReader reader = new WebRecordReader("1:0");
+
+		assertEquals(0, reader.nextInt());
+		assertFalse(reader.hasNext());
+	}
+
+	public void testRejectsTruncatedValue() {
+		assertMalformed(new WebRecordReader("5:hel"));
+	}
+
+	public void testRejectsTruncatedLength() {
+		assertMalformed(new WebRecordReader("12"));
+	}
+
+	public void testRejectsMissingLength() {
+		assertMalformed(new WebRecordReader(":abc"));
+	}
+
+	public void testRejectsReadingPastTheEnd() {
+		WebRecordReader reader = new WebRecordReader("2:ab");
+
+		assertEquals("ab", reader.nextString());
+		assertMalformed(reader);
+	}
+
+	public void testRejectsTruncatedRecordAfterCompleteFields() {
+		WebRecordReader reader = new WebRecordReader("1:24:type4:te");
+
+		assertEquals(2, reader.nextInt());
+		assertEquals("type", reader.nextString());
+		assertMalformed(reader);
+	}
+
+	public void testRejectsInvalidIntegers() {
+		assertMalformedInt(new WebRecordReader("0:"));
+		assertMalformedInt(new WebRecordReader("1:-"));
+		assertMalformedInt(new WebRecordReader("2:4a"));
+		assertMalformedInt(new WebRecordReader("3:1.5"));
+	}
+
+	public void testRejectsNonDigitLength() {
+		assertMalformed(new WebRecordReader("x:abc"));
+	}
+
+	public void testRejectsOverflowingLengths() {
+		assertMalformed(new WebRecordReader("3000000000:x"));
+		assertMalformed(new WebRecordReader("4294967297:x"));
+		assertMalformed(new WebRecordReader("0000000001:x"));
+	}
+
+	public void testRejectsLengthsExceedingTheData() {
+		assertMalformed(new WebRecordReader("999999999:x"));
+		assertMalformed(new WebRecordReader("2:x"));
+	}
+
+	public void testRejectsLengthWithoutSeparator() {
+		assertMalformed(new WebRecordReader("123456789012345"));
+	}
+
+	public void testReadsIntegerLimits() {
+		WebRecordReader reader = new WebRecordReader("11:-21474836482:-0");
+
+		assertEquals(Integer.MIN_VALUE, reader.nextInt());
+		assertEquals(0, reader.nextInt());
+		assertFalse(reader.hasNext());
+	}
+
+	public void testRejectsOverflowingIntegers() {
+		assertMalformedInt(new WebRecordReader("10:2147483648"));
+		assertMalformedInt(new WebRecordReader("11:-2147483649"));
+		assertMalformedInt(new WebRecordReader("11:99999999999"));
+	}
+
+	private void assertMalformed(WebRecordReader reader) {
+		try {
+			reader.nextString();
+			fail("Expected malformed data at " + reader.getPosition());
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	private void assertMalformedInt(WebRecordReader reader) {
+		try {
+			reader.nextInt();
+			fail("Expected an invalid integer in " + reader.getData());
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+}